@@ -0,0 +1,295 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm.apt;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+import cn.ieclipse.aorm.annotation.Column;
+import cn.ieclipse.aorm.annotation.Table;
+
+/**
+ * Annotation processor to generate <code>&lt;Entity&gt;$$RowBinder</code> for
+ * classes annotated with {@link Table}. The generated binder reads cursor
+ * values and object values with plain method calls, so no reflection needed
+ * when mapping rows.
+ *
+ * @author Jamling
+ *
+ */
+@SupportedAnnotationTypes("cn.ieclipse.aorm.annotation.Table")
+public class RowBinderProcessor extends AbstractProcessor {
+
+    private static final String SUFFIX = "$$RowBinder";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        for (Element e : roundEnv.getElementsAnnotatedWith(Table.class)) {
+            if (e.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement type = (TypeElement) e;
+            if (type.getModifiers().contains(Modifier.ABSTRACT)
+                    || (type.getNestingKind() == NestingKind.MEMBER && !type
+                            .getModifiers().contains(Modifier.STATIC))) {
+                warn(type, "Can't generate row binder for " + type
+                        + ", reflection will be used.");
+                continue;
+            }
+            try {
+                generate(type);
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Kind.ERROR,
+                        "Can't generate row binder: " + ex, type);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(
+                type);
+        String pkgName = pkg.isUnnamed() ? "" : pkg.getQualifiedName()
+                .toString();
+        String binaryName = processingEnv.getElementUtils()
+                .getBinaryName(type).toString();
+        String simpleName = (pkgName.length() > 0 ? binaryName
+                .substring(pkgName.length() + 1) : binaryName) + SUFFIX;
+        String entity = type.getQualifiedName().toString();
+
+        List<Property> props = new ArrayList<Property>();
+        Set<String> methods = new HashSet<String>();
+        for (ExecutableElement m : ElementFilter.methodsIn(type
+                .getEnclosedElements())) {
+            if (!m.getModifiers().contains(Modifier.PRIVATE)) {
+                methods.add(m.getSimpleName() + "/" + m.getParameters().size());
+            }
+        }
+        for (VariableElement field : ElementFilter.fieldsIn(type
+                .getEnclosedElements())) {
+            Column column = field.getAnnotation(Column.class);
+            if (column != null) {
+                Property p = new Property(column.name(), field, methods);
+                if (p.getter == null || p.setter == null) {
+                    warn(field, "No accessible accessor for " + field
+                            + ", column " + column.name() + " is skipped.");
+                } else {
+                    props.add(p);
+                }
+            }
+        }
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                pkgName.length() > 0 ? pkgName + "." + simpleName
+                        : simpleName, type);
+        PrintWriter pw = new PrintWriter(file.openWriter());
+        try {
+            pw.println("// Generated by " + getClass().getName()
+                    + ", do not modify.");
+            if (pkgName.length() > 0) {
+                pw.println("package " + pkgName + ";");
+                pw.println();
+            }
+            pw.println("import android.database.Cursor;");
+            pw.println("import cn.ieclipse.aorm.RowBinder;");
+            pw.println();
+            pw.println("public final class " + simpleName
+                    + " implements RowBinder<" + entity + "> {");
+            pw.print("    private static final String[] COLUMNS = {");
+            for (int i = 0; i < props.size(); i++) {
+                pw.print(i > 0 ? ", " : " ");
+                pw.print("\"" + props.get(i).column + "\"");
+            }
+            pw.println(" };");
+            pw.println();
+            pw.println("    public String[] getColumns() {");
+            pw.println("        return COLUMNS;");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public " + entity + " newInstance() {");
+            pw.println("        return new " + entity + "();");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public void read(" + entity
+                    + " obj, int column, Cursor c, int index) {");
+            pw.println("        switch (column) {");
+            for (int i = 0; i < props.size(); i++) {
+                Property p = props.get(i);
+                if (p.cursorGetter != null) {
+                    pw.println("        case " + i + ":");
+                    pw.println("            " + p.write("c." + p.cursorGetter
+                            + "(index)") + ";");
+                    pw.println("            break;");
+                }
+            }
+            pw.println("        default:");
+            pw.println("            break;");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println();
+            pw.println("    public Object get(" + entity
+                    + " obj, int column) {");
+            pw.println("        switch (column) {");
+            for (int i = 0; i < props.size(); i++) {
+                pw.println("        case " + i + ":");
+                pw.println("            return " + props.get(i).read() + ";");
+            }
+            pw.println("        default:");
+            pw.println("            return null;");
+            pw.println("        }");
+            pw.println("    }");
+            pw.println("}");
+        } finally {
+            pw.close();
+        }
+    }
+
+    private void warn(Element e, String msg) {
+        Messager messager = processingEnv.getMessager();
+        messager.printMessage(Kind.WARNING, msg, e);
+    }
+
+    private static class Property {
+        String column;
+        String field;
+        // method name or "" when use field directly.
+        String getter;
+        String setter;
+        String cursorGetter;
+
+        Property(String column, VariableElement element, Set<String> methods) {
+            this.column = column;
+            this.field = element.getSimpleName().toString();
+            TypeMirror type = element.asType();
+            cursorGetter = getCursorGetter(type);
+
+            // same naming rule as ColumnWrap
+            String name = field;
+            String get;
+            if (type.getKind() == TypeKind.BOOLEAN
+                    || "java.lang.Boolean".equals(type.toString())) {
+                if (name.startsWith("is") && name.length() > 2) {
+                    name = name.substring(2);
+                }
+                get = "is" + capitalize(name);
+            } else {
+                get = "get" + capitalize(name);
+            }
+            String set = "set" + capitalize(name);
+            boolean fieldAccess = !element.getModifiers().contains(
+                    Modifier.PRIVATE);
+            if (methods.contains(get + "/0")) {
+                getter = get;
+            } else if (fieldAccess) {
+                getter = "";
+            }
+            if (methods.contains(set + "/1")) {
+                setter = set;
+            } else if (fieldAccess
+                    && !element.getModifiers().contains(Modifier.FINAL)) {
+                setter = "";
+            }
+        }
+
+        String read() {
+            return getter.length() > 0 ? "obj." + getter + "()" : "obj."
+                    + field;
+        }
+
+        String write(String value) {
+            return setter.length() > 0 ? "obj." + setter + "(" + value + ")"
+                    : "obj." + field + " = " + value;
+        }
+
+        // same type mapping as CursorUtils.getColumnValue
+        static String getCursorGetter(TypeMirror type) {
+            switch (type.getKind()) {
+            case INT:
+                return "getInt";
+            case SHORT:
+                return "getShort";
+            case LONG:
+                return "getLong";
+            case FLOAT:
+                return "getFloat";
+            case DOUBLE:
+                return "getDouble";
+            case ARRAY:
+                return "byte[]".equals(type.toString()) ? "getBlob" : null;
+            default:
+                break;
+            }
+            String name = type.toString();
+            if ("java.lang.Integer".equals(name)) {
+                return "getInt";
+            } else if ("java.lang.Short".equals(name)) {
+                return "getShort";
+            } else if ("java.lang.Long".equals(name)) {
+                return "getLong";
+            } else if ("java.lang.Float".equals(name)) {
+                return "getFloat";
+            } else if ("java.lang.Double".equals(name)) {
+                return "getDouble";
+            } else if ("java.lang.String".equals(name)) {
+                return "getString";
+            }
+            return null;
+        }
+
+        static String capitalize(String str) {
+            String ret = str;
+            char c0 = str.charAt(0);
+            if (c0 >= 'a' && c0 <= 'z') {
+                if (str.length() > 1) {
+                    char c1 = str.charAt(1);
+                    if (!(c1 >= 'A' && c1 <= 'Z')) {
+                        ret = (char) (c0 - 32) + str.substring(1);
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+}
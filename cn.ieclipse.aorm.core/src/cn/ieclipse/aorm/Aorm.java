@@ -28,6 +28,7 @@ public final class Aorm {
     private static boolean debug = false;
     private static boolean supportExtend = false;
     private static boolean exactInsertOrUpdate = false;
+    private static volatile boolean dirtyTracking = false;
     private static final String TAG = "AORM";
 
     private Aorm() {
@@ -69,6 +70,27 @@ public final class Aorm {
         return Aorm.exactInsertOrUpdate;
     }
 
+    /**
+     * Enable/Disable dirty tracking. If enabled, the column values of every
+     * object loaded from database are saved, and
+     * {@link Session#update(Object)} writes the changed columns only, or
+     * nothing if no column changed.
+     * 
+     * @param enable
+     *            tracking flag, default false. Disable it clears all saved
+     *            values.
+     */
+    public static void enableDirtyTracking(boolean enable) {
+        dirtyTracking = enable;
+        if (!enable) {
+            DirtyTracker.clear();
+        }
+    }
+
+    static boolean isDirtyTracking() {
+        return dirtyTracking;
+    }
+
     /**
      * Print log message on Android using {@link Log android.util.Log}
      * 
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.database.Cursor;
+
+/**
+ * Stream to read a BLOB column in fixed size chunks with SQL
+ * <code>substr()</code>, only one chunk is in memory at a time, so the value
+ * needn't fit in a CursorWindow.
+ * <p>
+ * A row not exists or a null value is read as an empty stream.
+ * </p>
+ * 
+ * @see Session#openBlobInput(Class, String, long)
+ * @author Jamling
+ * 
+ */
+public class BlobInputStream extends InputStream {
+    private Session session;
+    private String sql;
+    private String lengthSql;
+    private String id;
+    private int chunkSize;
+
+    private byte[] buf;
+    private int pos;
+    // 0 based offset of next chunk in the value
+    private long offset;
+    private boolean eof;
+    // length of the value, -1 if not queried yet
+    private long length = -1;
+
+    BlobInputStream(Session session, String table, String column, String pk,
+            long id, int chunkSize) {
+        this.session = session;
+        this.sql = "SELECT substr(" + column + ", ?, ?) FROM " + table
+                + " WHERE " + pk + " = ?";
+        this.lengthSql = "SELECT length(" + column + ") FROM " + table
+                + " WHERE " + pk + " = ?";
+        this.id = String.valueOf(id);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, buf.length - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Skip bytes without reading them from database, not beyond the end of
+     * the value.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || eof) {
+            return 0;
+        }
+        int remain = buf == null ? 0 : buf.length - pos;
+        if (n <= remain) {
+            pos += n;
+            return n;
+        }
+        // drop current chunk, next chunk starts after the skipped bytes
+        long skipped = Math.min(n - remain, Math.max(0, getLength() - offset));
+        offset += skipped;
+        buf = null;
+        pos = 0;
+        return remain + skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buf == null ? 0 : buf.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        eof = true;
+        buf = null;
+    }
+
+    /**
+     * Get the offset in the value of the next byte to read.
+     * 
+     * @return 0 based offset
+     */
+    public long getPosition() {
+        return offset - (buf == null ? 0 : buf.length - pos);
+    }
+
+    private boolean fill() throws IOException {
+        if (buf != null && pos < buf.length) {
+            return true;
+        }
+        if (eof) {
+            return false;
+        }
+        buf = readChunk();
+        pos = 0;
+        if (buf == null || buf.length == 0) {
+            eof = true;
+            buf = null;
+            return false;
+        }
+        offset += buf.length;
+        return true;
+    }
+
+    private long getLength() throws IOException {
+        if (length < 0) {
+            Cursor c = query(lengthSql, new String[] { id });
+            try {
+                length = c != null && c.moveToFirst() ? c.getLong(0) : 0;
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
+        return length;
+    }
+
+    private Cursor query(String sql, String[] args) throws IOException {
+        try {
+            return session.rawQuery(sql, args);
+        } catch (RuntimeException e) {
+            IOException ex = new IOException(e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private byte[] readChunk() throws IOException {
+        // substr() position is 1 based
+        Cursor c = query(sql, new String[] { String.valueOf(offset + 1),
+                String.valueOf(chunkSize), id });
+        if (c == null) {
+            return null;
+        }
+        try {
+            if (!c.moveToFirst() || c.isNull(0)) {
+                return null;
+            }
+            return c.getBlob(0);
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Stream to write a BLOB column by incremental appends, the data is buffered
+ * in chunks and every full chunk is appended to the value with one compiled
+ * <code>UPDATE</code> statement, so the whole value needn't fit in memory.
+ * <p>
+ * The appends are separate statements, write in a transaction if a partially
+ * written value must not be visible. Every append rewrites the whole value,
+ * so the I/O grows with the square of the value size divided by the chunk
+ * size. The database must use UTF-8 encoding
+ * (the default on Android), as SQLite concatenates values as text.
+ * </p>
+ * 
+ * @see Session#openBlobOutput(Class, String, long, boolean)
+ * @author Jamling
+ * 
+ */
+public class BlobOutputStream extends OutputStream {
+    private Session session;
+    private Class<?> clazz;
+    private long id;
+    private SQLiteStatement stmt;
+
+    private byte[] buf;
+    private int count;
+    private long written;
+    private boolean closed;
+
+    BlobOutputStream(Session session, SQLiteDatabase db, Class<?> clazz,
+            String table, String column, String pk, long id, boolean append,
+            int chunkSize) {
+        this.session = session;
+        this.clazz = clazz;
+        this.id = id;
+        this.buf = new byte[chunkSize];
+        if (!append) {
+            SQLiteStatement truncate = db.compileStatement("UPDATE " + table
+                    + " SET " + column + " = X'' WHERE " + pk + " = ?");
+            try {
+                truncate.bindLong(1, id);
+                if (truncate.executeUpdateDelete() == 0) {
+                    throw new ORMException("No row " + table + "." + pk
+                            + " = " + id);
+                }
+            } finally {
+                truncate.close();
+            }
+        }
+        stmt = db.compileStatement("UPDATE " + table + " SET " + column
+                + " = CAST(ifnull(" + column + ", X'') || ? AS BLOB) WHERE "
+                + pk + " = ?");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == 0 && len >= buf.length) {
+                // full chunk, bypass buffer
+                byte[] chunk = new byte[buf.length];
+                System.arraycopy(b, off, chunk, 0, chunk.length);
+                append(chunk);
+                off += chunk.length;
+                len -= chunk.length;
+                continue;
+            }
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buf.length) {
+                flushBuffer();
+            }
+        }
+    }
+
+    /**
+     * Append buffered bytes to database.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+    }
+
+    /**
+     * Append buffered bytes and release the statement, the session listeners
+     * are notified once.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flushBuffer();
+        } finally {
+            closed = true;
+            stmt.close();
+            buf = null;
+        }
+        session.notifySessionListener(clazz);
+    }
+
+    /**
+     * Get count of bytes written to this stream.
+     * 
+     * @return written bytes
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        byte[] chunk = buf;
+        if (count < buf.length) {
+            chunk = new byte[count];
+            System.arraycopy(buf, 0, chunk, 0, count);
+        }
+        append(chunk);
+        count = 0;
+    }
+
+    private void append(byte[] chunk) throws IOException {
+        int updated;
+        try {
+            stmt.bindBlob(1, chunk);
+            stmt.bindLong(2, id);
+            updated = stmt.executeUpdateDelete();
+            stmt.clearBindings();
+        } catch (RuntimeException e) {
+            IOException ex = new IOException(e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+        if (updated == 0) {
+            throw new IOException("No row of " + clazz.getName() + " id = "
+                    + id);
+        }
+        written += chunk.length;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
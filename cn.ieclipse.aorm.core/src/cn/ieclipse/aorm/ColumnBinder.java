@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import cn.ieclipse.aorm.annotation.ColumnWrap;
+
+/**
+ * Bind a column value of an object to a compiled statement, resolved once
+ * per column by the property type, so no type checking per value. Primitive
+ * properties of a class without generated {@link RowBinder} are bound by
+ * {@link ColumnWrap#bind(Object, SQLiteStatement, int)}, from the field
+ * directly without boxing.
+ * 
+ * @author Jamling
+ * 
+ */
+abstract class ColumnBinder {
+    /**
+     * Value returned by {@link #get(Object)} of a primitive column, the value
+     * is read from the object when bound.
+     */
+    static final Object PRIMITIVE = new Object();
+
+    /**
+     * Get the column value of object, to check whether it's null and pass to
+     * {@link #bind(SQLiteStatement, int, Object, Object)}.
+     * 
+     * @param obj
+     *            the object instance
+     * @return column value or {@link #PRIMITIVE}, null if the value is null.
+     */
+    abstract Object get(Object obj);
+
+    /**
+     * Bind the non-null column value.
+     * 
+     * @param stmt
+     *            compiled statement
+     * @param index
+     *            1 based bind index
+     * @param obj
+     *            the object instance
+     * @param value
+     *            value returned by {@link #get(Object)}
+     */
+    abstract void bind(SQLiteStatement stmt, int index, Object obj,
+            Object value);
+
+    /**
+     * Create binders of all the columns of row binder.
+     * 
+     * @param binder
+     *            row binder of the class
+     * @param clazz
+     *            mapped class
+     * @return column binders indexed as {@link RowBinder#getColumns()}
+     */
+    @SuppressWarnings("unchecked")
+    static ColumnBinder[] create(RowBinder<?> binder, Class<?> clazz) {
+        String[] columns = binder.getColumns();
+        ColumnBinder[] binders = new ColumnBinder[columns.length];
+        boolean reflect = binder instanceof ReflectRowBinder;
+        for (int i = 0; i < columns.length; i++) {
+            ColumnWrap wrap = Mapping.getInstance().getColumnWrapByColumn(
+                    columns[i], clazz);
+            RowBinder<Object> b = (RowBinder<Object>) binder;
+            if (wrap == null) {
+                binders[i] = new ObjectBinder(b, i);
+            } else if (reflect && wrap.isPrimitive()) {
+                binders[i] = new PrimitiveBinder(wrap);
+            } else {
+                switch (wrap.getStorageType()) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    binders[i] = new LongBinder(b, i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    binders[i] = new DoubleBinder(b, i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    binders[i] = new BlobBinder(b, i);
+                    break;
+                default:
+                    // Boolean, Date etc. are converted by bindValue
+                    binders[i] = wrap.getFieldType() == String.class ? new StringBinder(
+                            b, i) : new ObjectBinder(b, i);
+                    break;
+                }
+            }
+        }
+        return binders;
+    }
+
+    private static class PrimitiveBinder extends ColumnBinder {
+        private final ColumnWrap wrap;
+
+        PrimitiveBinder(ColumnWrap wrap) {
+            this.wrap = wrap;
+        }
+
+        @Override
+        Object get(Object obj) {
+            return PRIMITIVE;
+        }
+
+        @Override
+        void bind(SQLiteStatement stmt, int index, Object obj, Object value) {
+            wrap.bind(obj, stmt, index);
+        }
+    }
+
+    private static class ObjectBinder extends ColumnBinder {
+        final RowBinder<Object> binder;
+        final int column;
+
+        ObjectBinder(RowBinder<Object> binder, int column) {
+            this.binder = binder;
+            this.column = column;
+        }
+
+        @Override
+        Object get(Object obj) {
+            return binder.get(obj, column);
+        }
+
+        @Override
+        void bind(SQLiteStatement stmt, int index, Object obj, Object value) {
+            EntityWriter.bindValue(stmt, index, value);
+        }
+    }
+
+    private static class LongBinder extends ObjectBinder {
+        LongBinder(RowBinder<Object> binder, int column) {
+            super(binder, column);
+        }
+
+        @Override
+        void bind(SQLiteStatement stmt, int index, Object obj, Object value) {
+            stmt.bindLong(index, ((Number) value).longValue());
+        }
+    }
+
+    private static class DoubleBinder extends ObjectBinder {
+        DoubleBinder(RowBinder<Object> binder, int column) {
+            super(binder, column);
+        }
+
+        @Override
+        void bind(SQLiteStatement stmt, int index, Object obj, Object value) {
+            stmt.bindDouble(index, ((Number) value).doubleValue());
+        }
+    }
+
+    private static class StringBinder extends ObjectBinder {
+        StringBinder(RowBinder<Object> binder, int column) {
+            super(binder, column);
+        }
+
+        @Override
+        void bind(SQLiteStatement stmt, int index, Object obj, Object value) {
+            stmt.bindString(index, value.toString());
+        }
+    }
+
+    private static class BlobBinder extends ObjectBinder {
+        BlobBinder(RowBinder<Object> binder, int column) {
+            super(binder, column);
+        }
+
+        @Override
+        void bind(SQLiteStatement stmt, int index, Object obj, Object value) {
+            stmt.bindBlob(index, (byte[]) value);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.database.Cursor;
+import cn.ieclipse.aorm.annotation.ColumnWrap;
+
+/**
+ * Column oriented query result. Every projection column is stored as a
+ * primitive array (integer and real columns), a dictionary encoded array
+ * (text columns) or a byte[] array (blob columns), with a null bitmap, so a
+ * large result takes much less memory than objects.
+ *
+ * <pre>
+ * ColumnarResult result = session.queryColumnar(criteria);
+ * int col = result.getColumnIndex(&quot;age&quot;);
+ * long sum = 0;
+ * for (int i = 0; i &lt; result.getRowCount(); i++) {
+ *     sum += result.getLong(i, col);
+ * }
+ * </pre>
+ *
+ * @see Session#queryColumnar(Criteria)
+ * @author Jamling
+ *
+ */
+public class ColumnarResult {
+    private int rowCount;
+    private String[] columnNames;
+    private String[] propertyNames;
+    private Column[] columns;
+
+    private ColumnarResult() {
+
+    }
+
+    // no row and no column, the query returned no cursor
+    static ColumnarResult empty() {
+        ColumnarResult result = new ColumnarResult();
+        result.columnNames = new String[0];
+        result.propertyNames = new String[0];
+        result.columns = new Column[0];
+        return result;
+    }
+
+    static ColumnarResult create(Cursor c, Criteria criteria) {
+        ColumnarResult result = new ColumnarResult();
+        String[] colNames = c.getColumnNames();
+        int size = c.getCount();
+        Class<?>[] classes = criteria.getProjectionClass();
+        int[] separators = criteria.getProjectionSeparators();
+        result.rowCount = size;
+        result.columnNames = colNames;
+        result.propertyNames = new String[colNames.length];
+        result.columns = new Column[colNames.length];
+        for (int i = 0; i < colNames.length; i++) {
+            String name = colNames[i];
+            int pos = name.indexOf('.');
+            if (pos > 0) {
+                name = name.substring(pos + 1);
+            }
+            ColumnWrap wrap = null;
+            for (int k = 0; k < classes.length && k < separators.length; k++) {
+                if (i < separators[k]) {
+                    wrap = Mapping.getInstance().getColumnWrapByColumn(name,
+                            classes[k]);
+                    break;
+                }
+            }
+            int type = Cursor.FIELD_TYPE_STRING;
+            if (wrap != null) {
+                result.propertyNames[i] = wrap.getPropertyName();
+                type = wrap.getStorageType();
+            }
+            result.columns[i] = new Column(type, size);
+        }
+        int row = 0;
+        for (c.moveToFirst(); !c.isAfterLast() && row < size; c.moveToNext()) {
+            for (int i = 0; i < colNames.length; i++) {
+                result.columns[i].read(c, i, row);
+            }
+            row++;
+        }
+        result.rowCount = row;
+        return result;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Get column name in cursor.
+     *
+     * @param column
+     *            column index
+     * @return column name
+     */
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * Get java property name mapped to the column.
+     *
+     * @param column
+     *            column index
+     * @return property name or null if the column not mapped.
+     */
+    public String getPropertyName(int column) {
+        return propertyNames[column];
+    }
+
+    /**
+     * Get column index by java property name or column name.
+     *
+     * @param name
+     *            java property name or column name
+     * @return column index or -1 if not found
+     */
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < columns.length; i++) {
+            if (name.equals(propertyNames[i])) {
+                return i;
+            }
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (name.equals(columnNames[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isNull(int row, int column) {
+        return columns[column].isNull(row);
+    }
+
+    public long getLong(int row, int column) {
+        return columns[column].getLong(row);
+    }
+
+    public int getInt(int row, int column) {
+        return (int) columns[column].getLong(row);
+    }
+
+    public double getDouble(int row, int column) {
+        return columns[column].getDouble(row);
+    }
+
+    public String getString(int row, int column) {
+        return columns[column].getString(row);
+    }
+
+    public byte[] getBlob(int row, int column) {
+        return columns[column].getBlob(row);
+    }
+
+    /**
+     * Get the backing array of an integer column, don't modify it.
+     *
+     * @param column
+     *            column index
+     * @return backing array, or null if not an integer column
+     */
+    public long[] getLongColumn(int column) {
+        return columns[column].longs;
+    }
+
+    /**
+     * Get the backing array of a real column, don't modify it.
+     *
+     * @param column
+     *            column index
+     * @return backing array, or null if not a real column
+     */
+    public double[] getDoubleColumn(int column) {
+        return columns[column].doubles;
+    }
+
+    /**
+     * Get a view of a row, no data copied.
+     *
+     * @param row
+     *            row index
+     * @return row view
+     */
+    public Row getRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + ", count "
+                    + rowCount);
+        }
+        return new Row(row);
+    }
+
+    /**
+     * Row view of {@link ColumnarResult}
+     */
+    public class Row {
+        private int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        public int getIndex() {
+            return row;
+        }
+
+        public boolean isNull(String name) {
+            return ColumnarResult.this.isNull(row, index(name));
+        }
+
+        public long getLong(String name) {
+            return ColumnarResult.this.getLong(row, index(name));
+        }
+
+        public int getInt(String name) {
+            return ColumnarResult.this.getInt(row, index(name));
+        }
+
+        public double getDouble(String name) {
+            return ColumnarResult.this.getDouble(row, index(name));
+        }
+
+        public String getString(String name) {
+            return ColumnarResult.this.getString(row, index(name));
+        }
+
+        public byte[] getBlob(String name) {
+            return ColumnarResult.this.getBlob(row, index(name));
+        }
+
+        private int index(String name) {
+            int index = getColumnIndex(name);
+            if (index < 0) {
+                throw new ORMException("No column " + name + " in result");
+            }
+            return index;
+        }
+    }
+
+    private static class Column {
+        private int type;
+        private long[] nulls;
+        private long[] longs;
+        private double[] doubles;
+        private byte[][] blobs;
+        // dictionary encoding
+        private int[] codes;
+        private ArrayList<String> values;
+        private HashMap<String, Integer> dict;
+
+        Column(int type, int size) {
+            this.type = type;
+            nulls = new long[(size + 63) >> 6];
+            if (type == Cursor.FIELD_TYPE_INTEGER) {
+                longs = new long[size];
+            } else if (type == Cursor.FIELD_TYPE_FLOAT) {
+                doubles = new double[size];
+            } else if (type == Cursor.FIELD_TYPE_BLOB) {
+                blobs = new byte[size][];
+            } else {
+                codes = new int[size];
+                values = new ArrayList<String>();
+                dict = new HashMap<String, Integer>();
+            }
+        }
+
+        void read(Cursor c, int index, int row) {
+            if (c.isNull(index)) {
+                nulls[row >> 6] |= 1L << (row & 63);
+                if (codes != null) {
+                    codes[row] = -1;
+                }
+                return;
+            }
+            switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                longs[row] = c.getLong(index);
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                doubles[row] = c.getDouble(index);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                blobs[row] = c.getBlob(index);
+                break;
+            default:
+                String value = c.getString(index);
+                Integer code = dict.get(value);
+                if (code == null) {
+                    code = values.size();
+                    values.add(value);
+                    dict.put(value, code);
+                }
+                codes[row] = code;
+                break;
+            }
+        }
+
+        boolean isNull(int row) {
+            return (nulls[row >> 6] & (1L << (row & 63))) != 0;
+        }
+
+        long getLong(int row) {
+            switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return longs[row];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return (long) doubles[row];
+            case Cursor.FIELD_TYPE_STRING:
+                return isNull(row) ? 0 : Long.parseLong(getString(row));
+            default:
+                throw new ORMException("Can't convert blob to long");
+            }
+        }
+
+        double getDouble(int row) {
+            switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return longs[row];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return doubles[row];
+            case Cursor.FIELD_TYPE_STRING:
+                return isNull(row) ? 0 : Double.parseDouble(getString(row));
+            default:
+                throw new ORMException("Can't convert blob to double");
+            }
+        }
+
+        String getString(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return String.valueOf(longs[row]);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return String.valueOf(doubles[row]);
+            case Cursor.FIELD_TYPE_BLOB:
+                throw new ORMException("Can't convert blob to String");
+            default:
+                return values.get(codes[row]);
+            }
+        }
+
+        byte[] getBlob(int row) {
+            if (type != Cursor.FIELD_TYPE_BLOB) {
+                throw new ORMException("Not a blob column");
+            }
+            return blobs[row];
+        }
+    }
+}
@@ -61,6 +61,11 @@ public class Criteria {
     private int pageSize;
     private int offest;
 
+    // keyset pagination
+    private boolean hasSeek = false;
+    private int seekSize;
+    private Object[] seekValues;
+
     /**
      * Create a criteria as base. If there was no mapping. an ORMException would
      * be throwed.
@@ -254,6 +259,40 @@ public class Criteria {
         return this;
     }
 
+    /**
+     * Use keyset (seek) pagination instead of LIMIT/OFFSET. The result is
+     * ordered by the orders added and then the primary key of root criteria,
+     * and only the rows after the last seen key are returned, so the query
+     * cost doesn't grow with the page depth.
+     * <p>
+     * <strong>Note:</strong> The order properties must be properties of root
+     * criteria and not null in database.
+     * </p>
+     * 
+     * @see Session#page(Criteria, int, Object[])
+     * @param size
+     *            page size, 0 to disable keyset pagination, the limit set by
+     *            {@link #setLimit(int, int)} is used again then.
+     * @param lastValues
+     *            the values of order properties and the primary key of the
+     *            last row in previous page, null for the first page.
+     * @return current criteria
+     */
+    public Criteria setSeek(int size, Object[] lastValues) {
+        root.hasSeek = size > 0;
+        root.seekSize = size;
+        root.seekValues = lastValues;
+        return this;
+    }
+
+    /* package */int getSeekSize() {
+        return root.seekSize;
+    }
+
+    /* package */Object[] getSeekLastValues() {
+        return root.seekValues;
+    }
+
     public String toSQL() {
         Criteria root = getRoot();
         StringBuilder sb = new StringBuilder();
@@ -368,8 +407,16 @@ public class Criteria {
     private void concatWhere(StringBuilder sb, Criteria root) {
         // boolean appendWhere = false;
         root.args.clear();
-        if (root.rootRestrictions != null) {
-            root.where = root.rootRestrictions.getWhere(root.args);
+        root.where = null;
+        Restrictions restrictions = root.rootRestrictions;
+        if (root.hasSeek && root.seekValues != null) {
+            Restrictions seek = getSeekRestrictions();
+            restrictions = restrictions == null ? seek : Restrictions.and(
+                    restrictions, seek);
+            restrictions.criteria = root;
+        }
+        if (restrictions != null) {
+            root.where = restrictions.getWhere(root.args);
             if (root.where.length() > 0) {
                 sb.append(" WHERE ");
                 sb.append(root.where);
@@ -406,14 +453,15 @@ public class Criteria {
     }
 
     private void concatOrder(StringBuilder sb, Criteria root) {
-        if (!root.orders.isEmpty()) {
+        List<Order> orders = root.hasSeek ? getSeekOrders() : root.orders;
+        if (!orders.isEmpty()) {
             sb.append(" ORDER BY ");
             int i = 0;
-            for (Order order : root.orders) {
+            for (Order order : orders) {
                 sb.append(property2Column(order.property));
                 sb.append(" ");
                 sb.append(order.order);
-                if (++i < root.orders.size()) {
+                if (++i < orders.size()) {
                     sb.append(", ");
                 }
             }
@@ -421,7 +469,10 @@ public class Criteria {
     }
 
     private void concatLimit(StringBuilder sb, Criteria root) {
-        if (hasLimit) {
+        if (root.hasSeek) {
+            sb.append(" LIMIT ");
+            sb.append(root.seekSize);
+        } else if (hasLimit) {
             sb.append(" LIMIT ");
             sb.append(root.pageSize);
             sb.append(" OFFSET ");
@@ -484,6 +535,105 @@ public class Criteria {
         return ret;
     }
 
+    /**
+     * Get the orders of keyset pagination, the root primary key is appended
+     * if not ordered by it.
+     * 
+     * @return seek orders
+     */
+    List<Order> getSeekOrders() {
+        String pk = Mapping.getInstance().getPKProperty(root.clazz);
+        if (pk == null) {
+            throw new ORMException("No primary key in "
+                    + root.clazz.getName());
+        }
+        if (root.alias != null) {
+            pk = root.alias + "." + pk;
+        }
+        String pkColumn = property2Column(pk);
+        List<Order> list = new ArrayList<Order>(root.orders.size() + 1);
+        boolean hasPk = false;
+        for (Order order : root.orders) {
+            list.add(order);
+            if (pkColumn.equals(property2Column(order.property))) {
+                hasPk = true;
+                break;
+            }
+        }
+        if (!hasPk) {
+            list.add(Order.asc(pk));
+        }
+        return list;
+    }
+
+    /**
+     * Get the values of seek orders from the last object of a page.
+     * 
+     * @param obj
+     *            root criteria object
+     * @return values used as next seek values
+     */
+    Object[] getSeekValues(Object obj) {
+        List<Order> orders = getSeekOrders();
+        Object[] values = new Object[orders.size()];
+        RowBinder<?> binder = Mapping.getInstance().getBinder(root.clazz);
+        for (int i = 0; i < values.length; i++) {
+            String property = orders.get(i).property;
+            if (root.alias != null && property.startsWith(root.alias + ".")) {
+                property = property.substring(root.alias.length() + 1);
+            }
+            String column = Mapping.getInstance().getColumnName(property,
+                    root.clazz);
+            if (column == null) {
+                throw new ORMException("Keyset pagination only support root "
+                        + "criteria properties, but ordered by " + property);
+            }
+            values[i] = getValue(binder, obj,
+                    Mapping.getInstance().getBinderColumn(column, root.clazz));
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Object getValue(RowBinder<T> binder, Object obj,
+            int column) {
+        return binder.get((T) obj, column);
+    }
+
+    // (o1 >= ? AND (o1 > ? OR (o1 = ? AND (o2 > ? OR (o2 = ? AND pk > ?)))))
+    // the leading range keeps the query index friendly.
+    private Restrictions getSeekRestrictions() {
+        List<Order> orders = getSeekOrders();
+        Object[] values = root.seekValues;
+        if (values.length != orders.size()) {
+            throw new ORMException("Seek values count must be "
+                    + orders.size() + ", but was " + values.length);
+        }
+        int last = orders.size() - 1;
+        Restrictions r = seek(orders.get(last), values[last]);
+        for (int i = last - 1; i >= 0; i--) {
+            Order order = orders.get(i);
+            r = Restrictions.or(seek(order, values[i]),
+                    Restrictions.and(
+                            Restrictions.eq(order.property, values[i]), r));
+        }
+        if (last > 0) {
+            Order first = orders.get(0);
+            Restrictions range = Order.DESC.equals(first.order) ? Restrictions
+                    .le(first.property, values[0]) : Restrictions.ge(
+                    first.property, values[0]);
+            r = Restrictions.and(range, r);
+        }
+        return r;
+    }
+
+    private static Restrictions seek(Order order, Object value) {
+        if (Order.DESC.equals(order.order)) {
+            return Restrictions.lt(order.property, value);
+        }
+        return Restrictions.gt(order.property, value);
+    }
+
     // String column2Property(String column) {
     // Criteria current = root;
     // String ret = null;
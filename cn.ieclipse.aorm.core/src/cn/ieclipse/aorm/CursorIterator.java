@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import android.database.Cursor;
+
+/**
+ * Lazy iterator over a query cursor, every row is converted to object only when
+ * {@link #next()} called. The cursor is closed when iteration finished, if you
+ * stop iterating before that, you must call {@link #close()}.
+ *
+ * <pre>
+ * CursorIterator&lt;A&gt; it = session.iterate(criteria);
+ * try {
+ *     while (it.hasNext()) {
+ *         A a = it.next();
+ *     }
+ * } finally {
+ *     it.close();
+ * }
+ * </pre>
+ *
+ * @author Jamling
+ *
+ * @param <T>
+ *            mapped class, or Object[] for joined query.
+ */
+public class CursorIterator<T> implements Iterator<T>, Closeable {
+    private Cursor cursor;
+    private RowMapper mapper;
+    private boolean all;
+
+    CursorIterator(Cursor c, RowMapper mapper, boolean all) {
+        this.cursor = c;
+        this.mapper = mapper;
+        this.all = all;
+        if (c != null) {
+            c.moveToFirst();
+        }
+    }
+
+    public boolean hasNext() {
+        if (cursor == null) {
+            return false;
+        }
+        if (cursor.isAfterLast()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object obj;
+        try {
+            obj = all ? mapper.mapAll(cursor) : mapper.map(cursor);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        cursor.moveToNext();
+        return (T) obj;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Close the cursor, it's safe to call more than once.
+     */
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+    }
+}
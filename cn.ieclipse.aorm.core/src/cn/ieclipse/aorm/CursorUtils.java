@@ -33,34 +33,17 @@ public final class CursorUtils {
 
     }
 
+    @SuppressWarnings("unchecked")
     public static <T> List<T> getFromCursor(Cursor c, Class<T> objClass,
             String alias) {
         ArrayList<T> list = new ArrayList<T>();
         if (c == null) {
             return list;
         }
-        String[] colNames = c.getColumnNames();
-        int[] indcies = new int[colNames.length];
-        Method[] objMethod = new Method[colNames.length];
-        Class<?>[] fieldClass = new Class<?>[colNames.length];
         try {
-            for (int i = 0; i < colNames.length; i++) {
-                indcies[i] = c.getColumnIndex(colNames[i]);
-                Method m = getObjSetter(colNames[i], objClass, alias);
-                if (m != null) {
-                    objMethod[i] = m;
-                    fieldClass[i] = m.getParameterTypes()[0];
-                }
-            }
+            RowMapper mapper = RowMapper.get(c, objClass, alias);
             for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                T obj = objClass.newInstance();
-                for (int i = 0; i < colNames.length; i++) {
-                    if (objMethod[i] != null) {
-                        objMethod[i].invoke(obj,
-                                getColumnValue(c, indcies[i], fieldClass[i]));
-                    }
-                }
-                list.add(obj);
+                list.add((T) mapper.map(c));
             }
             c.close();
         } catch (Exception e) {
@@ -74,33 +57,12 @@ public final class CursorUtils {
         if (c == null) {
             return list;
         }
-        String[] colNames = c.getColumnNames();
-        int[] indcies = new int[colNames.length];
-        Method[] objMethod = new Method[colNames.length];
-        // field type class, used in getter invoked.
-        Class<?>[] fieldClass = new Class<?>[colNames.length];
-
         Class<?> objClass = criteria.getRoot().getClazz();
         String objAlias = criteria.getRoot().getAlias();
-        Object obj = null;
         try {
-            for (int i = 0; i < colNames.length; i++) {
-                indcies[i] = c.getColumnIndex(colNames[i]);
-                Method m = getObjSetter(colNames[i], objClass, objAlias);
-                if (m != null) {
-                    objMethod[i] = m;
-                    fieldClass[i] = objMethod[i].getParameterTypes()[0];
-                }
-            }
+            RowMapper mapper = RowMapper.get(c, objClass, objAlias);
             for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                obj = objClass.newInstance();
-                for (int i = 0; i < indcies.length; i++) {
-                    if (objMethod[i] != null) {
-                        objMethod[i].invoke(obj,
-                                getColumnValue(c, indcies[i], fieldClass[i]));
-                    }
-                }
-                list.add(obj);
+                list.add(mapper.map(c));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -116,40 +78,10 @@ public final class CursorUtils {
         if (c == null) {
             return list;
         }
-        String[] colNames = c.getColumnNames();
-        int[] indcies = new int[colNames.length];
-        Method[] objMethod = new Method[colNames.length];
-        // field type class, used in getter invoked.
-        Class<?>[] fieldClass = new Class<?>[colNames.length];
-        int[] objIdxs = new int[colNames.length];
         try {
-            for (int i = 0; i < colNames.length; i++) {
-                indcies[i] = c.getColumnIndex(colNames[i]);
-                for (int j = 0; j < objClassArray.length; j++) {
-                    Method m = getObjSetter(colNames[i], objClassArray[j],
-                            aliasArray[j]);
-                    if (m != null) {
-                        objMethod[i] = m;
-                        fieldClass[i] = objMethod[i].getParameterTypes()[0];
-                        objIdxs[i] = j;
-                        break;
-                    }
-                }
-            }
+            RowMapper mapper = RowMapper.get(c, objClassArray, aliasArray);
             for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                Object[] objArray = new Object[objClassArray.length];
-                for (int i = 0; i < indcies.length; i++) {
-                    Object obj = objArray[objIdxs[i]];
-                    if (obj == null) {
-                        obj = objClassArray[objIdxs[i]].newInstance();
-                        objArray[objIdxs[i]] = obj;
-                    }
-                    if (objMethod[i] != null) {
-                        objMethod[i].invoke(obj,
-                                getColumnValue(c, indcies[i], fieldClass[i]));
-                    }
-                }
-                list.add(objArray);
+                list.add(mapper.mapAll(c));
             }
             c.close();
         } catch (Exception e) {
@@ -165,41 +97,10 @@ public final class CursorUtils {
         if (c == null) {
             return list;
         }
-        String[] colNames = c.getColumnNames();
-        int[] indcies = new int[colNames.length];
-        Method[] objMethod = new Method[colNames.length];
-        // field type class, used in getter invoked.
-        Class<?>[] fieldClass = new Class<?>[colNames.length];
-        int[] objIdxs = new int[colNames.length];
         try {
-            for (int i = 0; i < colNames.length; i++) {
-                indcies[i] = c.getColumnIndex(colNames[i]);
-                for (int k = 0; k < objClassArray.length; k++) {
-                    if (i < separatorArray[k]) {
-                        objMethod[i] = getObjSetter(colNames[i],
-                                objClassArray[k]);
-                        if (objMethod[i] != null) {
-                            fieldClass[i] = objMethod[i].getParameterTypes()[0];
-                            objIdxs[i] = k;
-                        }
-                        break;
-                    }
-                }
-            }
+            RowMapper mapper = RowMapper.get(c, objClassArray, separatorArray);
             for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                Object[] objArray = new Object[objClassArray.length];
-                for (int i = 0; i < indcies.length; i++) {
-                    Object obj = objArray[objIdxs[i]];
-                    if (obj == null) {
-                        obj = objClassArray[objIdxs[i]].newInstance();
-                        objArray[objIdxs[i]] = obj;
-                    }
-                    if (objMethod[i] != null) {
-                        objMethod[i].invoke(obj,
-                                getColumnValue(c, indcies[i], fieldClass[i]));
-                    }
-                }
-                list.add(objArray);
+                list.add(mapper.mapAll(c));
             }
             c.close();
         } catch (Exception e) {
@@ -258,28 +159,6 @@ public final class CursorUtils {
         return method;
     }
 
-    private static Method getObjSetter(String column, Class<?> objClass) /*
-                                                                          * throws
-                                                                          * SecurityException
-                                                                          * ,
-                                                                          * NoSuchFieldException
-                                                                          * ,
-                                                                          * NoSuchMethodException
-                                                                          */{
-        Method method = null;
-        int pos = column.indexOf('.');
-        // has alias
-        if (pos > 0) {
-            String tempAlias = column.substring(0, pos);
-            // not match
-            method = Mapping.getInstance().getSetterByColumn(
-                    column.substring(pos + 1), objClass);
-        } else {
-            method = Mapping.getInstance().getSetterByColumn(column, objClass);
-        }
-        return method;
-    }
-
     // static Method getObjGetter(String column, Class<?> objClass, String
     // alias) {
     // String prop = Cache.getInstance().getPropertyName(column, objClass);
@@ -310,27 +189,6 @@ public final class CursorUtils {
         return ret;
     }
 
-    private static Object getColumnValue(Cursor c, int index,
-            Class<?> paramClass) {
-        Object paramValue = null;
-        if (paramClass == int.class || paramClass == Integer.class) {
-            paramValue = c.getInt(index);
-        } else if (paramClass == byte[].class || paramClass == Byte[].class) {
-            paramValue = c.getBlob(index);
-        } else if (paramClass == short.class || paramClass == Short.class) {
-            paramValue = c.getShort(index);
-        } else if (paramClass == long.class || paramClass == Long.class) {
-            paramValue = c.getLong(index);
-        } else if (paramClass == float.class || paramClass == Float.class) {
-            paramValue = c.getFloat(index);
-        } else if (paramClass == double.class || paramClass == Double.class) {
-            paramValue = c.getDouble(index);
-        } else if (paramClass == String.class) {
-            paramValue = c.getString(index);
-        }
-        return paramValue;
-    }
-
     // ///////////////
 
     private static class CursorReflect {
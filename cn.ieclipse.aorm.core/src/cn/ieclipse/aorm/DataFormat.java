@@ -0,0 +1,50 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+/**
+ * Text formats of table import and export. BLOB values are Base64 encoded in
+ * both formats.
+ * <ul>
+ * <li>{@link #CSV}: RFC 4180 comma separated values, the first record is the
+ * header of column names or java property names. An empty unquoted field is
+ * NULL, a quoted empty field <code>""</code> is an empty string. Blank lines
+ * are skipped, except in a single column file where a blank line is a NULL
+ * value.</li>
+ * <li>{@link #JSON_LINES}: one flat JSON object per line, the keys are column
+ * names or java property names.</li>
+ * </ul>
+ * 
+ * @see TableImporter
+ * @see TableExporter
+ * @author Jamling
+ * 
+ */
+public final class DataFormat {
+    public static final String CSV = "csv";
+    public static final String JSON_LINES = "jsonl";
+
+    private DataFormat() {
+
+    }
+
+    static void check(String format) {
+        if (!CSV.equals(format) && !JSON_LINES.equals(format)) {
+            throw new IllegalArgumentException("Unsupported format: "
+                    + format);
+        }
+    }
+}
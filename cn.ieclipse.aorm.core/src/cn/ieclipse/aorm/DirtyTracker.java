@@ -0,0 +1,239 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Snapshots of the column values of loaded objects, used to update changed
+ * columns only. The objects are weakly referenced by identity, a snapshot is
+ * dropped when its object is garbage collected. The snapshots are kept in
+ * lock striped maps, so threads mapping rows in parallel rarely wait for
+ * each other.
+ * 
+ * @see Aorm#enableDirtyTracking(boolean)
+ * @author Jamling
+ * 
+ */
+final class DirtyTracker {
+    // power of 2
+    private static final int STRIPES = 16;
+    private static final Stripe[] stripes = new Stripe[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private DirtyTracker() {
+
+    }
+
+    private static Stripe stripe(Object obj) {
+        int h = System.identityHashCode(obj);
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Save current column values of the object.
+     * 
+     * @param obj
+     *            loaded object
+     * @param binder
+     *            binder of the object class
+     */
+    static void snapshot(Object obj, RowBinder<Object> binder) {
+        int size = binder.getColumns().length;
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = copy(binder.get(obj, i));
+        }
+        Stripe s = stripe(obj);
+        synchronized (s) {
+            s.expunge();
+            s.snapshots.put(new Ref(obj, s.queue), values);
+        }
+    }
+
+    /**
+     * Get a copy of the snapshot of the object, update it with
+     * {@link #update(Object, int[], int, Object[])}.
+     * 
+     * @param obj
+     *            the object
+     * @return column values indexed as {@link RowBinder#getColumns()}, or
+     *         null if the object is not tracked.
+     */
+    static Object[] get(Object obj) {
+        Stripe s = stripe(obj);
+        synchronized (s) {
+            s.expunge();
+            Object[] values = s.snapshots.get(new Ref(obj, null));
+            return values == null ? null : values.clone();
+        }
+    }
+
+    /**
+     * Update some columns of the snapshot to the written values, if the
+     * object is tracked.
+     * 
+     * @param obj
+     *            the object
+     * @param columns
+     *            column indexes in binder
+     * @param size
+     *            count of columns
+     * @param values
+     *            written values indexed as {@link RowBinder#getColumns()}
+     */
+    static void update(Object obj, int[] columns, int size, Object[] values) {
+        Stripe s = stripe(obj);
+        synchronized (s) {
+            Object[] snapshot = s.snapshots.get(new Ref(obj, null));
+            if (snapshot != null) {
+                for (int i = 0; i < size; i++) {
+                    snapshot[columns[i]] = copy(values[columns[i]]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop tracking the object.
+     * 
+     * @param obj
+     *            the object
+     */
+    static void remove(Object obj) {
+        Stripe s = stripe(obj);
+        synchronized (s) {
+            s.expunge();
+            s.snapshots.remove(new Ref(obj, null));
+        }
+    }
+
+    /**
+     * Update some columns of the snapshot to current values, if the object
+     * is tracked.
+     * 
+     * @param obj
+     *            the object
+     * @param binder
+     *            binder of the object class
+     * @param columns
+     *            column indexes in binder
+     */
+    static void refresh(Object obj, RowBinder<Object> binder, int[] columns) {
+        Stripe s = stripe(obj);
+        synchronized (s) {
+            Object[] values = s.snapshots.get(new Ref(obj, null));
+            if (values != null) {
+                for (int col : columns) {
+                    values[col] = copy(binder.get(obj, col));
+                }
+            }
+        }
+    }
+
+    static void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.snapshots.clear();
+                while (s.queue.poll() != null) {
+                    // drain
+                }
+            }
+        }
+    }
+
+    static int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.expunge();
+                size += s.snapshots.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Whether the column value changed since snapshot.
+     */
+    static boolean isChanged(Object value, Object old) {
+        if (value == old) {
+            return false;
+        }
+        if (value == null || old == null) {
+            return true;
+        }
+        if (value instanceof byte[] && old instanceof byte[]) {
+            return !Arrays.equals((byte[]) value, (byte[]) old);
+        }
+        return !value.equals(old);
+    }
+
+    // byte[] is mutable
+    static Object copy(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value;
+    }
+
+    private static class Stripe {
+        final HashMap<Ref, Object[]> snapshots = new HashMap<Ref, Object[]>();
+        final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+        // guarded by this
+        void expunge() {
+            Object ref;
+            while ((ref = queue.poll()) != null) {
+                snapshots.remove(ref);
+            }
+        }
+    }
+
+    private static class Ref extends WeakReference<Object> {
+        private final int hash;
+
+        Ref(Object obj, ReferenceQueue<Object> queue) {
+            super(obj, queue);
+            hash = System.identityHashCode(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Ref)) {
+                return false;
+            }
+            Object obj = get();
+            return obj != null && obj == ((Ref) o).get();
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.List;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Write objects of one mapped class with compiled statements. Null values are
+ * not written, so there is a statement for every set of non-null columns, the
+ * statements are taken from the {@link StatementCache} of the session and
+ * reused by the objects having the same set. The values are bound by the
+ * {@link ColumnBinder}s of the class, no ContentValues or other collection
+ * created.
+ * <p>
+ * A writer is used by one thread.
+ * </p>
+ * 
+ * @author Jamling
+ * 
+ */
+class EntityWriter {
+    private SQLiteDatabase db;
+    private StatementCache cache;
+    private RowBinder<Object> binder;
+    private String table;
+    private String pk;
+    private boolean replace;
+    private boolean hasLazy;
+    private String[] columns;
+    private ColumnBinder[] columnBinders;
+    // pk column index in binder, -1 if no pk
+    private int pkCol;
+    private Object[] values;
+
+    @SuppressWarnings("unchecked")
+    EntityWriter(SQLiteDatabase db, StatementCache cache, Class<?> clazz) {
+        Mapping mapping = Mapping.getInstance();
+        this.db = db;
+        this.cache = cache;
+        this.binder = (RowBinder<Object>) mapping.getBinder(clazz);
+        this.table = mapping.getTableName(clazz);
+        this.pk = mapping.getPK(clazz);
+        this.replace = mapping.isReplace(clazz);
+        this.hasLazy = !mapping.getLazyColumns(clazz).isEmpty();
+        this.columns = binder.getColumns();
+        this.columnBinders = mapping.getColumnBinders(clazz);
+        this.pkCol = pk == null ? -1 : mapping.getBinderColumn(pk, clazz);
+        this.values = new Object[columns.length];
+    }
+
+    /**
+     * Insert the object, the primary key is not written.
+     * 
+     * @param obj
+     *            the object instance
+     * @return the row ID of the newly inserted row
+     */
+    long insert(Object obj) {
+        readValues(obj, false);
+        return insert(obj, null);
+    }
+
+    /**
+     * Update the row of the object by primary key, only the changed columns
+     * if the object is tracked.
+     * 
+     * @param obj
+     *            the object instance
+     * @return the number of rows affected
+     */
+    int update(Object obj) {
+        if (Aorm.isDirtyTracking()) {
+            Object[] snapshot = DirtyTracker.get(obj);
+            if (snapshot != null) {
+                return updateChanged(obj, snapshot);
+            }
+        }
+        return updateColumns(obj);
+    }
+
+    /**
+     * Update all the non-null columns of the object by primary key.
+     * 
+     * @param obj
+     *            the object instance
+     * @return the number of rows affected
+     */
+    int updateColumns(Object obj) {
+        Object pkValue = getPkValue(obj);
+        if (pkValue == null || readValues(obj, false) == 0) {
+            return 0;
+        }
+        return updateByPk(obj, pkValue);
+    }
+
+    /**
+     * Update the changed columns of the object by primary key, a column
+     * changed to null is written too. No statement executed if nothing
+     * changed. The snapshot is updated after written.
+     * 
+     * @param obj
+     *            the object instance
+     * @param snapshot
+     *            column values when the object loaded
+     * @return the number of rows affected, 0 if nothing changed
+     */
+    int updateChanged(Object obj, Object[] snapshot) {
+        Object pkValue = getPkValue(obj);
+        if (pkValue == null) {
+            return 0;
+        }
+        int size = 0;
+        StringBuilder sb = new StringBuilder();
+        sb.append("UPDATE ");
+        sb.append(table);
+        sb.append(" SET ");
+        int[] changed = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (i == pkCol) {
+                continue;
+            }
+            values[i] = binder.get(obj, i);
+            if (DirtyTracker.isChanged(values[i], snapshot[i])) {
+                if (size > 0) {
+                    sb.append(',');
+                }
+                sb.append(columns[i]);
+                sb.append("=?");
+                changed[size++] = i;
+            }
+        }
+        if (size == 0) {
+            return 0;
+        }
+        sb.append(" WHERE ");
+        sb.append(pk);
+        sb.append("=?");
+        String sql = sb.toString();
+        int count;
+        SQLiteStatement stmt = cache.acquire(db, sql);
+        try {
+            for (int i = 0; i < size; i++) {
+                bindValue(stmt, i + 1, values[changed[i]]);
+            }
+            bindValue(stmt, size + 1, pkValue);
+            count = stmt.executeUpdateDelete();
+        } finally {
+            cache.release(db, sql, stmt);
+        }
+        if (count > 0) {
+            DirtyTracker.update(obj, changed, size, values);
+        }
+        return count;
+    }
+
+    /**
+     * Insert the object or update the existing row with same primary key by
+     * the strategy of {@link cn.ieclipse.aorm.annotation.Table#replace()}.
+     * If the primary key is not set (null or not more than 0), the object is
+     * inserted.
+     * <p>
+     * The update and insert are two statements, call it in a transaction so
+     * no other writer can insert the row between them.
+     * </p>
+     * 
+     * @param obj
+     *            the object instance
+     * @return the row ID of the inserted row or the primary key value of the
+     *         updated row
+     * @throws ORMException
+     *             if the class uses <code>INSERT OR REPLACE</code> and has
+     *             lazy columns
+     */
+    long upsert(Object obj) {
+        Object pkValue = getPkValue(obj);
+        if (pkValue == null
+                || (pkValue instanceof Number && ((Number) pkValue)
+                        .longValue() <= 0)) {
+            return insert(obj);
+        }
+        if (replace) {
+            if (hasLazy) {
+                // REPLACE deletes the row, the lazy columns not loaded are lost
+                throw new ORMException("@Table(replace=true) can't be used with"
+                        + " lazy columns: " + table);
+            }
+            readValues(obj, true);
+            return insert(obj, " OR REPLACE");
+        }
+        long id = pkValue instanceof Number ? ((Number) pkValue).longValue()
+                : -1;
+        if (readValues(obj, false) > 0) {
+            if (updateByPk(obj, pkValue) > 0) {
+                return id;
+            }
+        } else if (exists(pkValue)) {
+            // only primary key set, nothing to update
+            return id;
+        }
+        readValues(obj, true);
+        return insert(obj, null);
+    }
+
+    /**
+     * Check whether the row of the primary key exists.
+     * 
+     * @param pkValue
+     *            primary key value
+     * @return true if exists
+     */
+    boolean exists(Object pkValue) {
+        String sql = "SELECT COUNT(*) FROM " + table + " WHERE " + pk + "=?";
+        return cache.simpleQueryForLong(db, sql, new Object[] { pkValue }) > 0;
+    }
+
+    /**
+     * Max bound variables of a statement, SQLITE_MAX_VARIABLE_NUMBER.
+     */
+    static final int MAX_VARIABLES = 999;
+    /**
+     * Max rows of a multi-row VALUES, SQLITE_MAX_COMPOUND_SELECT of SQLite
+     * before 3.8.8.
+     */
+    static final int MAX_VALUES_ROWS = 500;
+
+    /**
+     * Get the rows per multi-row VALUES statement.
+     * 
+     * @param width
+     *            bound variables per row, &gt; 0
+     * @return max rows of a statement, at least 1
+     */
+    static int rowsPerStatement(int width) {
+        // a row wider than the limit fails as a single INSERT does
+        return Math.max(1, Math.min(MAX_VALUES_ROWS, MAX_VARIABLES / width));
+    }
+
+    /**
+     * Insert the objects with multi-row
+     * <code>INSERT INTO t (cols) VALUES (...),(...)</code> statements. All
+     * the columns except primary key are written, null values as NULL. The
+     * rows per statement is computed by the column count and the bound
+     * variables limit, the statement of full chunk is reused.
+     * 
+     * @param objs
+     *            objects of the class
+     * @return the number of rows inserted
+     */
+    int insertRows(List<?> objs) {
+        int width = columns.length - (pkCol >= 0 ? 1 : 0);
+        if (width == 0) {
+            int count = 0;
+            for (Object obj : objs) {
+                count += insert(obj) > 0 ? 1 : 0;
+            }
+            return count;
+        }
+        int chunk = rowsPerStatement(width);
+        StringBuilder sb = new StringBuilder();
+        sb.append("INSERT INTO ");
+        sb.append(table);
+        sb.append(" (");
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++) {
+            if (i != pkCol) {
+                if (row.length() > 1) {
+                    sb.append(',');
+                    row.append(',');
+                }
+                sb.append(columns[i]);
+                row.append('?');
+            }
+        }
+        sb.append(") VALUES ");
+        row.append(')');
+        String prefix = sb.toString();
+        String sql = null;
+        int count = 0;
+        int size = objs.size();
+        for (int start = 0; start < size; start += chunk) {
+            int rows = Math.min(chunk, size - start);
+            if (sql == null || rows < chunk) {
+                sb.setLength(0);
+                sb.append(prefix);
+                for (int i = 0; i < rows; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(row);
+                }
+                sql = sb.toString();
+            }
+            SQLiteStatement stmt = cache.acquire(db, sql);
+            try {
+                int index = 1;
+                for (int r = start; r < start + rows; r++) {
+                    Object obj = objs.get(r);
+                    for (int i = 0; i < columns.length; i++) {
+                        if (i == pkCol) {
+                            continue;
+                        }
+                        Object value = columnBinders[i].get(obj);
+                        if (value == null) {
+                            stmt.bindNull(index++);
+                        } else {
+                            columnBinders[i].bind(stmt, index++, obj, value);
+                        }
+                    }
+                }
+                count += stmt.executeUpdateDelete();
+            } finally {
+                cache.release(db, sql, stmt);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Delete the row by primary key.
+     * 
+     * @param pkValue
+     *            primary key value
+     * @return the number of rows deleted
+     */
+    int delete(Object pkValue) {
+        String sql = "DELETE FROM " + table + " WHERE " + pk + "=?";
+        SQLiteStatement stmt = cache.acquire(db, sql);
+        try {
+            bindValue(stmt, 1, pkValue);
+            return stmt.executeUpdateDelete();
+        } finally {
+            cache.release(db, sql, stmt);
+        }
+    }
+
+    /**
+     * Get primary key value of the object.
+     * 
+     * @param obj
+     *            the object instance
+     * @return primary key value, may be null
+     * @throws ORMException
+     *             if the class has no primary key
+     */
+    Object getPkValue(Object obj) {
+        if (pkCol < 0) {
+            throw new ORMException("No primary key found in "
+                    + obj.getClass().getName());
+        }
+        return binder.get(obj, pkCol);
+    }
+
+    private long insert(Object obj, String conflict) {
+        int size = 0;
+        StringBuilder sb = new StringBuilder();
+        sb.append("INSERT");
+        if (conflict != null) {
+            sb.append(conflict);
+        }
+        sb.append(" INTO ");
+        sb.append(table);
+        int start = sb.length();
+        sb.append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (values[i] != null) {
+                sb.append(size++ == 0 ? "" : ",");
+                sb.append(columns[i]);
+            }
+        }
+        if (size == 0) {
+            sb.setLength(start);
+            sb.append(" DEFAULT VALUES");
+        } else {
+            sb.append(") VALUES (");
+            for (int i = 0; i < size; i++) {
+                sb.append(i == 0 ? "?" : ",?");
+            }
+            sb.append(")");
+        }
+        String sql = sb.toString();
+        SQLiteStatement stmt = cache.acquire(db, sql);
+        try {
+            bindValues(stmt, obj);
+            return stmt.executeInsert();
+        } finally {
+            cache.release(db, sql, stmt);
+        }
+    }
+
+    private int updateByPk(Object obj, Object pkValue) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("UPDATE ");
+        sb.append(table);
+        sb.append(" SET ");
+        boolean first = true;
+        for (int i = 0; i < columns.length; i++) {
+            if (values[i] != null) {
+                if (!first) {
+                    sb.append(',');
+                }
+                sb.append(columns[i]);
+                sb.append("=?");
+                first = false;
+            }
+        }
+        sb.append(" WHERE ");
+        sb.append(pk);
+        sb.append("=?");
+        String sql = sb.toString();
+        SQLiteStatement stmt = cache.acquire(db, sql);
+        try {
+            int index = bindValues(stmt, obj);
+            bindValue(stmt, index, pkValue);
+            return stmt.executeUpdateDelete();
+        } finally {
+            cache.release(db, sql, stmt);
+        }
+    }
+
+    // read non-null values, return count of them
+    private int readValues(Object obj, boolean withPk) {
+        int size = 0;
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = i == pkCol && !withPk ? null : columnBinders[i]
+                    .get(obj);
+            if (values[i] != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    // bind non-null values, return next bind index
+    private int bindValues(SQLiteStatement stmt, Object obj) {
+        int index = 1;
+        for (int i = 0; i < columns.length; i++) {
+            if (values[i] != null) {
+                columnBinders[i].bind(stmt, index++, obj, values[i]);
+                values[i] = null;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Bind a value to statement, in the same way of
+     * {@link SQLiteDatabase#execSQL(String, Object[])}.
+     * 
+     * @param stmt
+     *            compiled statement
+     * @param index
+     *            1 based bind index
+     * @param value
+     *            the value
+     */
+    static void bindValue(SQLiteStatement stmt, int index, Object value) {
+        if (value == null) {
+            stmt.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            stmt.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            stmt.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            stmt.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            stmt.bindBlob(index, (byte[]) value);
+        } else {
+            stmt.bindString(index, value.toString());
+        }
+    }
+}
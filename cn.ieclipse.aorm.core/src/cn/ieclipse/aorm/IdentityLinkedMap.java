@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map comparing keys by identity and keeping insertion order, so entity
+ * objects overriding equals() and hashCode() are still distinct keys.
+ * 
+ * @author Jamling
+ * 
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+class IdentityLinkedMap<K, V> extends AbstractMap<K, V> {
+    private final IdentityHashMap<K, V> map = new IdentityHashMap<K, V>();
+    private final ArrayList<K> keys = new ArrayList<K>();
+
+    @Override
+    public V get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (!map.containsKey(key)) {
+            keys.add(key);
+        }
+        return map.put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!map.containsKey(key)) {
+            return null;
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i) == key) {
+                keys.remove(i);
+                break;
+            }
+        }
+        return map.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        keys.clear();
+    }
+
+    @Override
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private int next;
+        private boolean removable;
+
+        public boolean hasNext() {
+            return next < keys.size();
+        }
+
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            removable = true;
+            return new Entry(keys.get(next++));
+        }
+
+        public void remove() {
+            if (!removable) {
+                throw new IllegalStateException();
+            }
+            removable = false;
+            map.remove(keys.remove(--next));
+        }
+    }
+
+    private class Entry implements Map.Entry<K, V> {
+        private final K key;
+
+        Entry(K key) {
+            this.key = key;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return map.get(key);
+        }
+
+        public V setValue(V value) {
+            return map.put(key, value);
+        }
+
+        // same as entries of IdentityHashMap
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key == e.getKey() && getValue() == e.getValue();
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key)
+                    ^ System.identityHashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.HashMap;
+
+import android.database.Cursor;
+
+/**
+ * Map joined rows with an identity map scoped to one query. Objects of the
+ * same class and same primary key are created once and shared by all the
+ * rows, e.g. a customer with 500 orders is one customer object.
+ * <p>
+ * The class of which primary key is not in projection, or the row of which
+ * primary key is null (no match in LEFT JOIN) is not deduplicated.
+ * </p>
+ *
+ * @author Jamling
+ *
+ */
+class IdentityRowMapper {
+    private RowMapper mapper;
+    // cursor column index of primary key of each class, -1 if not projected
+    private int[] pkIdxs;
+    private HashMap<Long, Object>[] identities;
+    private boolean[] loaded;
+
+    @SuppressWarnings("unchecked")
+    IdentityRowMapper(RowMapper mapper, Class<?>[] objClassArray) {
+        this.mapper = mapper;
+        int size = objClassArray.length;
+        pkIdxs = new int[size];
+        identities = (HashMap<Long, Object>[]) new HashMap<?, ?>[size];
+        loaded = new boolean[size];
+        for (int k = 0; k < size; k++) {
+            pkIdxs[k] = -1;
+            String pk = Mapping.getInstance().getPK(objClassArray[k]);
+            if (pk == null) {
+                continue;
+            }
+            int pkCol = Mapping.getInstance().getBinderColumn(pk,
+                    objClassArray[k]);
+            for (int i = 0; i < mapper.columns.length; i++) {
+                if (mapper.objIdxs[i] == k && mapper.columns[i] == pkCol) {
+                    pkIdxs[k] = mapper.indcies[i];
+                    identities[k] = new HashMap<Long, Object>();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Map current row of cursor to objects of all mapped classes, the object
+     * already mapped by previous rows is reused.
+     *
+     * @param c
+     *            cursor positioned on the row
+     * @return mapped objects array
+     */
+    Object[] mapAll(Cursor c) {
+        Object[] objArray = new Object[pkIdxs.length];
+        for (int k = 0; k < pkIdxs.length; k++) {
+            loaded[k] = false;
+            if (pkIdxs[k] >= 0 && !c.isNull(pkIdxs[k])) {
+                Long id = c.getLong(pkIdxs[k]);
+                Object obj = identities[k].get(id);
+                if (obj != null) {
+                    objArray[k] = obj;
+                    loaded[k] = true;
+                } else {
+                    obj = mapper.binders[k].newInstance();
+                    objArray[k] = obj;
+                    identities[k].put(id, obj);
+                }
+            }
+        }
+        for (int i = 0; i < mapper.indcies.length; i++) {
+            int k = mapper.objIdxs[i];
+            if (loaded[k]) {
+                continue;
+            }
+            Object obj = objArray[k];
+            if (obj == null) {
+                obj = mapper.binders[k].newInstance();
+                objArray[k] = obj;
+            }
+            if (mapper.columns[i] >= 0) {
+                mapper.binders[k].read(obj, mapper.columns[i], c,
+                        mapper.indcies[i]);
+            }
+        }
+        if (Aorm.isDirtyTracking()) {
+            for (int k = 0; k < objArray.length; k++) {
+                if (!loaded[k] && objArray[k] != null) {
+                    DirtyTracker.snapshot(objArray[k], mapper.binders[k]);
+                }
+            }
+        }
+        return objArray;
+    }
+}
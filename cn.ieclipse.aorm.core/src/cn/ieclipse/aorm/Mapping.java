@@ -16,8 +16,17 @@
 package cn.ieclipse.aorm;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import cn.ieclipse.aorm.annotation.ColumnWrap;
 import cn.ieclipse.aorm.annotation.TableWrap;
@@ -27,28 +36,178 @@ import cn.ieclipse.aorm.annotation.TableWrap;
  * @hide
  */
 public class Mapping {
-    private static Mapping instance = null;
+    private static final Mapping instance = new Mapping();
 
     public static Mapping getInstance() {
-        if (instance == null) {
-            synchronized (Mapping.class) {
-                instance = new Mapping();
-            }
-        }
         return instance;
     }
 
-    private HashMap<Class<?>, TableWrap> tables = new HashMap<Class<?>, TableWrap>();
+    // concurrent maps, lookup without lock. If two threads resolve the same
+    // class at the same time, the first one put to map wins.
+    private ConcurrentHashMap<Class<?>, TableWrap> tables = new ConcurrentHashMap<Class<?>, TableWrap>();
+
+    private ConcurrentHashMap<String, TableWrap> tableNames = new ConcurrentHashMap<String, TableWrap>();
 
     private TableWrap getTableWrap(Class<?> clazz) {
         TableWrap wrap = tables.get(clazz);
         if (wrap == null) {
             wrap = new TableWrap(clazz);
-            tables.put(clazz, wrap);
+            TableWrap old = tables.putIfAbsent(clazz, wrap);
+            if (old != null) {
+                wrap = old;
+            } else {
+                tableNames.putIfAbsent(wrap.getTableName(), wrap);
+            }
         }
         return wrap;
     }
 
+    /**
+     * Resolve the mapping of classes in parallel on background threads, so the
+     * first query of these classes needn't scan annotations. Call it when your
+     * application starting.
+     * 
+     * @param classes
+     *            mapped classes
+     * @return future of resolving cost of every class in nanoseconds, get()
+     *         throws ExecutionException if any class can't be mapped.
+     */
+    public static Future<Map<Class<?>, Long>> register(
+            final Class<?>... classes) {
+        int threads = Math.min(classes.length, Runtime.getRuntime()
+                .availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(threads, 1), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "aorm-register");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        final List<Future<Long>> futures = new ArrayList<Future<Long>>(
+                classes.length);
+        for (final Class<?> clazz : classes) {
+            futures.add(executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    long start = System.nanoTime();
+                    getInstance().warmUp(clazz);
+                    long cost = System.nanoTime() - start;
+                    Aorm.logv("register " + clazz.getName() + " cost "
+                            + (cost / 1000) + "us");
+                    return cost;
+                }
+            }));
+        }
+        // submitted last, all the warm up tasks have been started when it run
+        Future<Map<Class<?>, Long>> result = executor
+                .submit(new Callable<Map<Class<?>, Long>>() {
+                    public Map<Class<?>, Long> call() throws Exception {
+                        Map<Class<?>, Long> costs = new LinkedHashMap<Class<?>, Long>();
+                        for (int i = 0; i < classes.length; i++) {
+                            costs.put(classes[i], futures.get(i).get());
+                        }
+                        return costs;
+                    }
+                });
+        executor.shutdown();
+        return result;
+    }
+
+    private void warmUp(Class<?> clazz) {
+        TableWrap wrap = getTableWrap(clazz);
+        for (ColumnWrap col : wrap.getColumnWraps()) {
+            col.getGetterMethod();
+        }
+        getBinderInfo(clazz);
+    }
+
+    private ConcurrentHashMap<Class<?>, BinderInfo> binders = new ConcurrentHashMap<Class<?>, BinderInfo>();
+
+    private static class BinderInfo {
+        RowBinder<?> binder;
+        // column name to binder column index
+        HashMap<String, Integer> columns;
+        ColumnBinder[] columnBinders;
+
+        BinderInfo(RowBinder<?> binder, Class<?> clazz) {
+            this.binder = binder;
+            this.columnBinders = ColumnBinder.create(binder, clazz);
+            String[] names = binder.getColumns();
+            columns = new HashMap<String, Integer>(names.length * 2);
+            for (int i = names.length - 1; i >= 0; i--) {
+                columns.put(names[i], i);
+            }
+        }
+    }
+
+    private BinderInfo getBinderInfo(Class<?> clazz) {
+        BinderInfo info = binders.get(clazz);
+        if (info == null) {
+            info = new BinderInfo(loadBinder(clazz), clazz);
+            BinderInfo old = binders.putIfAbsent(clazz, info);
+            if (old != null) {
+                info = old;
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Get the row binder of mapped class. The generated binder is preferred,
+     * if not found, a reflection based binder is used.
+     * 
+     * @param clazz
+     *            mapped class
+     * @return row binder
+     */
+    @SuppressWarnings("unchecked")
+    /* package */<T> RowBinder<T> getBinder(Class<T> clazz) {
+        return (RowBinder<T>) getBinderInfo(clazz).binder;
+    }
+
+    private RowBinder<?> loadBinder(Class<?> clazz) {
+        String name = clazz.getName() + RowBinder.SUFFIX;
+        try {
+            Class<?> binderClass = Class.forName(name, true,
+                    clazz.getClassLoader());
+            return (RowBinder<?>) binderClass.getDeclaredConstructor()
+                    .newInstance();
+        } catch (ClassNotFoundException e) {
+            // no generated binder, use reflection
+        } catch (Exception e) {
+            Aorm.logv("Can't create " + name + ", use reflection instead. "
+                    + e);
+        }
+        return new ReflectRowBinder(getTableWrap(clazz));
+    }
+
+    /**
+     * Get the statement binders of the columns of mapped class.
+     * 
+     * @param clazz
+     *            mapped class
+     * @return column binders indexed as {@link RowBinder#getColumns()}
+     */
+    /* package */ColumnBinder[] getColumnBinders(Class<?> clazz) {
+        return getBinderInfo(clazz).columnBinders;
+    }
+
+    /**
+     * Get the index of column in row binder.
+     * 
+     * @param column
+     *            column name in database
+     * @param clazz
+     *            mapped class
+     * @return column index in {@link RowBinder#getColumns()} or -1 if not
+     *         found
+     */
+    /* package */int getBinderColumn(String column, Class<?> clazz) {
+        Integer index = getBinderInfo(clazz).columns.get(column);
+        return index == null ? -1 : index.intValue();
+    }
+
     public String getTableName(Class<?> clazz) {
         return getTableWrap(clazz).getTableName();
     }
@@ -63,12 +222,8 @@ public class Mapping {
      * @return mapped class.
      */
     public Class<?> getTableClass(String table) {
-        for (TableWrap wrap : tables.values()) {
-            if (wrap.getTableName().equals(table)) {
-                return wrap.getTableClass();
-            }
-        }
-        return null;
+        TableWrap wrap = tableNames.get(table);
+        return wrap == null ? null : wrap.getTableClass();
     }
 
     public List<String> getColumns(String alias, Class<?> clazz) {
@@ -83,6 +238,10 @@ public class Mapping {
         return getTableWrap(clazz).getProperty(column);
     }
 
+    /* package */boolean isReplace(Class<?> clazz) {
+        return getTableWrap(clazz).isReplace();
+    }
+
     public String getPK(Class<?> clazz) {
         return getTableWrap(clazz).getPK();
     }
@@ -95,6 +254,15 @@ public class Mapping {
         return getTableWrap(clazz).getColumnWrap(property);
     }
 
+    /* package */ColumnWrap getColumnWrapByColumn(String column,
+            Class<?> clazz) {
+        return getTableWrap(clazz).getColumnWrapByColumn(column);
+    }
+
+    /* package */List<ColumnWrap> getLazyColumns(Class<?> clazz) {
+        return getTableWrap(clazz).getLazyColumnWraps();
+    }
+
     /* package */List<ColumnWrap> getColumns(Class<?> clazz) {
         return getTableWrap(clazz).getColumnWraps();
     }
@@ -20,8 +20,8 @@ package cn.ieclipse.aorm;
  * 
  */
 public class Order {
-    private static final String ASC = "ASC";
-    private static final String DESC = "DESC";
+    static final String ASC = "ASC";
+    static final String DESC = "DESC";
 
     String property;
     String order;
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.List;
+
+/**
+ * A page of keyset pagination query.
+ * 
+ * @see Session#page(Criteria, int, Object[])
+ * @author Jamling
+ * 
+ * @param <T>
+ *            mapped class
+ */
+public class Page<T> {
+    private List<T> items;
+    private Object[] nextToken;
+
+    Page(List<T> items, Object[] nextToken) {
+        this.items = items;
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * Get the objects of this page.
+     * 
+     * @return objects list
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Get the continuation token to query next page. The token is the values
+     * of order properties and primary key of the last object.
+     * 
+     * @return continuation token or null if no more page.
+     */
+    public Object[] getNextToken() {
+        return nextToken;
+    }
+
+    /**
+     * Whether there may be a next page.
+     * 
+     * @return true if {@link #getNextToken()} not null
+     */
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * Map large results on all CPU cores. The cursor rows are copied into a
+ * compact column oriented buffer on the calling thread first, then objects
+ * are created from the buffer in chunks on a thread pool. The result order is
+ * kept.
+ *
+ * @author Jamling
+ *
+ */
+final class ParallelMapper {
+    private static final int CHUNK_SIZE = 512;
+    private static final int THREADS = Math.max(1, Runtime.getRuntime()
+            .availableProcessors());
+    private static ExecutorService executor;
+
+    private ParallelMapper() {
+
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "aorm-mapper");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Map all rows of cursor, the cursor is closed before return.
+     *
+     * @param c
+     *            cursor
+     * @param mapper
+     *            mapping plan
+     * @param all
+     *            true to map to objects array, false to map to root object.
+     * @return mapped list
+     */
+    static List<Object> map(Cursor c, final RowMapper mapper, final boolean all) {
+        final RowBuffer buffer;
+        try {
+            buffer = new RowBuffer(c);
+        } finally {
+            c.close();
+        }
+        final int count = buffer.getCount();
+        final Object[] result = new Object[count];
+        int chunk = Math.max(CHUNK_SIZE, (count + THREADS * 4 - 1)
+                / (THREADS * 4));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < count; start += chunk) {
+            final int from = start;
+            final int to = Math.min(count, start + chunk);
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    RowBuffer view = buffer.view();
+                    for (int i = from; i < to; i++) {
+                        view.moveToPosition(i);
+                        result[i] = all ? mapper.mapAll(view) : mapper
+                                .map(view);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ORMException(e);
+            }
+        } else {
+            try {
+                for (Future<Void> f : getExecutor().invokeAll(tasks)) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ORMException(e);
+            } catch (ExecutionException e) {
+                throw new ORMException(e.getCause());
+            }
+        }
+        return new ArrayList<Object>(Arrays.asList(result));
+    }
+
+    /**
+     * Column oriented copy of cursor rows. Integers and reals are kept in a
+     * long array, text and blob in an object array allocated only when the
+     * column has such values.
+     */
+    static class RowBuffer extends AbstractCursor {
+        private String[] columnNames;
+        private int count;
+        private byte[][] types;
+        private long[][] numbers;
+        private Object[][] objects;
+
+        private RowBuffer() {
+
+        }
+
+        RowBuffer(Cursor c) {
+            columnNames = c.getColumnNames();
+            int size = columnNames.length;
+            count = c.getCount();
+            types = new byte[size][count];
+            numbers = new long[size][];
+            objects = new Object[size][];
+            int row = 0;
+            for (c.moveToFirst(); !c.isAfterLast() && row < count; c
+                    .moveToNext()) {
+                for (int i = 0; i < size; i++) {
+                    int type = c.getType(i);
+                    types[i][row] = (byte) type;
+                    switch (type) {
+                    case FIELD_TYPE_INTEGER:
+                        numbers(i)[row] = c.getLong(i);
+                        break;
+                    case FIELD_TYPE_FLOAT:
+                        numbers(i)[row] = Double.doubleToRawLongBits(c
+                                .getDouble(i));
+                        break;
+                    case FIELD_TYPE_STRING:
+                        objects(i)[row] = c.getString(i);
+                        break;
+                    case FIELD_TYPE_BLOB:
+                        objects(i)[row] = c.getBlob(i);
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                row++;
+            }
+            count = row;
+        }
+
+        private long[] numbers(int column) {
+            if (numbers[column] == null) {
+                numbers[column] = new long[types[column].length];
+            }
+            return numbers[column];
+        }
+
+        private Object[] objects(int column) {
+            if (objects[column] == null) {
+                objects[column] = new Object[types[column].length];
+            }
+            return objects[column];
+        }
+
+        /**
+         * Create a cursor view sharing the data, every thread need its own
+         * position.
+         *
+         * @return new view
+         */
+        RowBuffer view() {
+            RowBuffer view = new RowBuffer();
+            view.columnNames = columnNames;
+            view.count = count;
+            view.types = types;
+            view.numbers = numbers;
+            view.objects = objects;
+            return view;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            return types[column][getPosition()];
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return types[column][getPosition()] == FIELD_TYPE_NULL;
+        }
+
+        @Override
+        public String getString(int column) {
+            int row = getPosition();
+            switch (types[column][row]) {
+            case FIELD_TYPE_INTEGER:
+                return String.valueOf(numbers[column][row]);
+            case FIELD_TYPE_FLOAT:
+                return String.valueOf(Double
+                        .longBitsToDouble(numbers[column][row]));
+            case FIELD_TYPE_STRING:
+                return (String) objects[column][row];
+            case FIELD_TYPE_BLOB:
+                return new String((byte[]) objects[column][row]);
+            default:
+                return null;
+            }
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            int row = getPosition();
+            switch (types[column][row]) {
+            case FIELD_TYPE_BLOB:
+                return (byte[]) objects[column][row];
+            case FIELD_TYPE_NULL:
+                return null;
+            default:
+                String s = getString(column);
+                return s == null ? null : s.getBytes();
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            int row = getPosition();
+            switch (types[column][row]) {
+            case FIELD_TYPE_INTEGER:
+                return numbers[column][row];
+            case FIELD_TYPE_FLOAT:
+                return (long) Double.longBitsToDouble(numbers[column][row]);
+            case FIELD_TYPE_STRING:
+                return parseLong((String) objects[column][row]);
+            default:
+                return 0;
+            }
+        }
+
+        @Override
+        public double getDouble(int column) {
+            int row = getPosition();
+            switch (types[column][row]) {
+            case FIELD_TYPE_INTEGER:
+                return numbers[column][row];
+            case FIELD_TYPE_FLOAT:
+                return Double.longBitsToDouble(numbers[column][row]);
+            case FIELD_TYPE_STRING:
+                try {
+                    return Double.parseDouble((String) objects[column][row]);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            default:
+                return 0;
+            }
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        // text not a number is 0
+        private static long parseLong(String s) {
+            try {
+                return Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                try {
+                    return (long) Double.parseDouble(s.trim());
+                } catch (NumberFormatException e2) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
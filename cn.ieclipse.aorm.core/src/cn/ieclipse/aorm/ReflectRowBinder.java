@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+
+import android.database.Cursor;
+import cn.ieclipse.aorm.annotation.ColumnWrap;
+import cn.ieclipse.aorm.annotation.TableWrap;
+
+/**
+ * Reflection based {@link RowBinder}, used when no generated binder found. The
+ * column accessors are resolved once by {@link ColumnWrap}.
+ *
+ * @author Jamling
+ *
+ */
+class ReflectRowBinder implements RowBinder<Object> {
+    private Class<?> clazz;
+    private String[] columns;
+    private ColumnWrap[] wraps;
+    // resolved on first use, a class without default constructor can still
+    // be written
+    private Constructor<?> constructor;
+
+    public ReflectRowBinder(TableWrap table) {
+        clazz = table.getTableClass();
+        List<ColumnWrap> list = table.getColumnWraps();
+        int size = list.size();
+        columns = new String[size];
+        wraps = list.toArray(new ColumnWrap[size]);
+        for (int i = 0; i < size; i++) {
+            columns[i] = wraps[i].getColumnName();
+        }
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public Object newInstance() {
+        try {
+            if (constructor == null) {
+                constructor = clazz.getDeclaredConstructor();
+            }
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new ORMException(e);
+        }
+    }
+
+    public void read(Object obj, int column, Cursor c, int index) {
+        wraps[column].read(obj, c, index);
+    }
+
+    public Object get(Object obj, int column) {
+        return wraps[column].get(obj);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import android.database.Cursor;
+
+/**
+ * Bind a mapped object to a database row. The aorm annotation processor
+ * generates a binder named <code>&lt;Entity&gt;$$RowBinder</code> for every
+ * class annotated with {@link cn.ieclipse.aorm.annotation.Table Table}, which
+ * is picked up by {@link Session} and {@link CursorUtils} automatically. If no
+ * generated binder found, a reflection based binder is used instead.
+ * <p>
+ * The <code>column</code> parameter of the methods is the index of the column
+ * in {@link #getColumns()}, not the index of the column in cursor.
+ * </p>
+ *
+ * @author Jamling
+ *
+ * @param <T>
+ *            the mapped class
+ */
+public interface RowBinder<T> {
+    /**
+     * Class name suffix of generated binder.
+     */
+    public static final String SUFFIX = "$$RowBinder";
+
+    /**
+     * Get the column names this binder can read and write.
+     *
+     * @return column names in database
+     */
+    public String[] getColumns();
+
+    /**
+     * Create a new instance of the mapped class.
+     *
+     * @return new object
+     */
+    public T newInstance();
+
+    /**
+     * Read value from cursor and set it to the object.
+     *
+     * @param obj
+     *            the object to fill
+     * @param column
+     *            column index in {@link #getColumns()}
+     * @param c
+     *            cursor positioned on the row
+     * @param index
+     *            column index in cursor
+     */
+    public void read(T obj, int column, Cursor c, int index);
+
+    /**
+     * Get column value of the object, used as statement argument.
+     *
+     * @param obj
+     *            the object instance
+     * @param column
+     *            column index in {@link #getColumns()}
+     * @return column value, may be null
+     */
+    public Object get(T obj, int column);
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.database.Cursor;
+
+/**
+ * Compiled plan to map cursor rows to objects. A plan resolves every cursor
+ * column to a mapped class and a {@link RowBinder} column once, and is cached
+ * by mapped classes, aliases and cursor column names, so running the same
+ * query again needn't resolve the columns again.
+ *
+ * @author Jamling
+ *
+ */
+public final class RowMapper {
+    private static final int MODE_ALIAS = 0;
+    private static final int MODE_SEPARATOR = 1;
+
+    private static int maxSize = 64;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final LinkedHashMap<Key, RowMapper> cache = new LinkedHashMap<Key, RowMapper>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, RowMapper> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    final RowBinder<Object>[] binders;
+    // column index in cursor
+    final int[] indcies;
+    // column index in binder, -1 if not mapped
+    final int[] columns;
+    // index of mapped class
+    final int[] objIdxs;
+
+    @SuppressWarnings("unchecked")
+    private RowMapper(Class<?>[] classes, int size) {
+        binders = (RowBinder<Object>[]) new RowBinder<?>[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            binders[i] = (RowBinder<Object>) Mapping.getInstance().getBinder(
+                    classes[i]);
+        }
+        indcies = new int[size];
+        columns = new int[size];
+        objIdxs = new int[size];
+    }
+
+    /**
+     * Map current row of cursor to a new object of the first mapped class.
+     *
+     * @param c
+     *            cursor positioned on the row
+     * @return mapped object
+     */
+    Object map(Cursor c) {
+        RowBinder<Object> binder = binders[0];
+        Object obj = binder.newInstance();
+        for (int i = 0; i < indcies.length; i++) {
+            if (columns[i] >= 0) {
+                binder.read(obj, columns[i], c, indcies[i]);
+            }
+        }
+        if (Aorm.isDirtyTracking()) {
+            DirtyTracker.snapshot(obj, binder);
+        }
+        return obj;
+    }
+
+    /**
+     * Map current row of cursor to objects of all mapped classes.
+     *
+     * @param c
+     *            cursor positioned on the row
+     * @return mapped objects array
+     */
+    Object[] mapAll(Cursor c) {
+        Object[] objArray = new Object[binders.length];
+        for (int i = 0; i < indcies.length; i++) {
+            Object obj = objArray[objIdxs[i]];
+            if (obj == null) {
+                obj = binders[objIdxs[i]].newInstance();
+                objArray[objIdxs[i]] = obj;
+            }
+            if (columns[i] >= 0) {
+                binders[objIdxs[i]].read(obj, columns[i], c, indcies[i]);
+            }
+        }
+        snapshot(objArray);
+        return objArray;
+    }
+
+    /**
+     * Fill current row of cursor into an existing object of the first mapped
+     * class. The reused object is not dirty tracked.
+     *
+     * @param c
+     *            cursor positioned on the row
+     * @param obj
+     *            object to reuse
+     */
+    void fill(Cursor c, Object obj) {
+        RowBinder<Object> binder = binders[0];
+        for (int i = 0; i < indcies.length; i++) {
+            if (columns[i] >= 0) {
+                binder.read(obj, columns[i], c, indcies[i]);
+            }
+        }
+    }
+
+    /**
+     * Fill current row of cursor into existing objects of all mapped classes.
+     * Null elements of the array are created once and reused later. The
+     * reused objects are not dirty tracked.
+     *
+     * @param c
+     *            cursor positioned on the row
+     * @param objArray
+     *            objects to reuse, length must be the count of mapped classes
+     */
+    void fillAll(Cursor c, Object[] objArray) {
+        for (int i = 0; i < indcies.length; i++) {
+            Object obj = objArray[objIdxs[i]];
+            if (obj == null) {
+                obj = binders[objIdxs[i]].newInstance();
+                objArray[objIdxs[i]] = obj;
+            }
+            if (columns[i] >= 0) {
+                binders[objIdxs[i]].read(obj, columns[i], c, indcies[i]);
+            }
+        }
+    }
+
+    // save loaded values for dirty tracking
+    private void snapshot(Object[] objArray) {
+        if (Aorm.isDirtyTracking()) {
+            for (int k = 0; k < objArray.length; k++) {
+                if (objArray[k] != null) {
+                    DirtyTracker.snapshot(objArray[k], binders[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get plan for a single class.
+     *
+     * @param c
+     *            cursor
+     * @param objClass
+     *            mapped class
+     * @param alias
+     *            alias of mapped class, may be null
+     * @return mapping plan
+     */
+    static RowMapper get(Cursor c, Class<?> objClass, String alias) {
+        return get(c, new Class<?>[] { objClass }, new String[] { alias });
+    }
+
+    /**
+     * Get plan for joined classes, cursor columns are matched by alias.
+     *
+     * @param c
+     *            cursor
+     * @param objClassArray
+     *            mapped classes
+     * @param aliasArray
+     *            alias of mapped classes
+     * @return mapping plan
+     */
+    static RowMapper get(Cursor c, Class<?>[] objClassArray,
+            String[] aliasArray) {
+        String[] colNames = c.getColumnNames();
+        Key key = new Key(MODE_ALIAS, objClassArray, aliasArray, colNames);
+        RowMapper mapper = lookup(key);
+        if (mapper == null) {
+            mapper = new RowMapper(objClassArray, colNames.length);
+            for (int i = 0; i < colNames.length; i++) {
+                // not getColumnIndex(), joined tables may have same column name
+                mapper.indcies[i] = i;
+                mapper.columns[i] = -1;
+                for (int j = 0; j < objClassArray.length; j++) {
+                    int col = getBinderColumn(colNames[i], objClassArray[j],
+                            aliasArray[j]);
+                    if (col >= 0) {
+                        mapper.columns[i] = col;
+                        mapper.objIdxs[i] = j;
+                        break;
+                    }
+                }
+            }
+            store(key, mapper);
+        }
+        return mapper;
+    }
+
+    /**
+     * Get plan for joined classes, cursor columns are assigned to classes by
+     * separators.
+     *
+     * @param c
+     *            cursor
+     * @param objClassArray
+     *            mapped classes
+     * @param separatorArray
+     *            end column (exclusive) of each mapped classes
+     * @return mapping plan
+     */
+    static RowMapper get(Cursor c, Class<?>[] objClassArray,
+            int[] separatorArray) {
+        String[] colNames = c.getColumnNames();
+        Key key = new Key(MODE_SEPARATOR, objClassArray, separatorArray,
+                colNames);
+        RowMapper mapper = lookup(key);
+        if (mapper == null) {
+            mapper = new RowMapper(objClassArray, colNames.length);
+            for (int i = 0; i < colNames.length; i++) {
+                // not getColumnIndex(), joined tables may have same column name
+                mapper.indcies[i] = i;
+                mapper.columns[i] = -1;
+                for (int k = 0; k < objClassArray.length; k++) {
+                    if (i < separatorArray[k]) {
+                        mapper.columns[i] = getBinderColumn(colNames[i],
+                                objClassArray[k]);
+                        if (mapper.columns[i] >= 0) {
+                            mapper.objIdxs[i] = k;
+                        }
+                        break;
+                    }
+                }
+            }
+            store(key, mapper);
+        }
+        return mapper;
+    }
+
+    private static RowMapper lookup(Key key) {
+        RowMapper mapper;
+        synchronized (cache) {
+            mapper = cache.get(key);
+        }
+        if (mapper != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return mapper;
+    }
+
+    private static void store(Key key, RowMapper mapper) {
+        synchronized (cache) {
+            cache.put(key, mapper);
+        }
+    }
+
+    private static int getBinderColumn(String column, Class<?> objClass,
+            String alias) {
+        int pos = column.indexOf('.');
+        // has alias
+        if (pos > 0) {
+            String tempAlias = column.substring(0, pos);
+            // match
+            if (tempAlias.equals(alias)) {
+                return Mapping.getInstance().getBinderColumn(
+                        column.substring(pos + 1), objClass);
+            }
+            return -1;
+        }
+        return Mapping.getInstance().getBinderColumn(column, objClass);
+    }
+
+    private static int getBinderColumn(String column, Class<?> objClass) {
+        int pos = column.indexOf('.');
+        // has alias
+        if (pos > 0) {
+            return Mapping.getInstance().getBinderColumn(
+                    column.substring(pos + 1), objClass);
+        }
+        return Mapping.getInstance().getBinderColumn(column, objClass);
+    }
+
+    /**
+     * Set the max number of cached plans, default is 64.
+     *
+     * @param size
+     *            max cached plans, 0 to disable the cache.
+     */
+    public static void setCacheSize(int size) {
+        synchronized (cache) {
+            maxSize = size;
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get how many times a cached plan reused.
+     *
+     * @return hit count
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get how many times a plan compiled.
+     *
+     * @return miss count
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Clear cached plans and reset the counters.
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static class Key {
+        private final Object[] parts;
+        private final int hash;
+
+        Key(int mode, Object classes, Object mapping, String[] colNames) {
+            parts = new Object[] { mode, classes, mapping, colNames };
+            hash = Arrays.deepHashCode(parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && Arrays.deepEquals(parts, other.parts);
+        }
+    }
+}
@@ -15,16 +15,27 @@
  */
 package cn.ieclipse.aorm;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import cn.ieclipse.aorm.annotation.ColumnWrap;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
 
@@ -35,8 +46,14 @@ import android.net.Uri;
  * @author Jamling
  */
 public class Session {
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
     private SQLiteOpenHelper mHelper;
     private ContentResolver mResolver;
+    private final StatementCache mStatements = new StatementCache(
+            STATEMENT_CACHE_SIZE);
+    // transaction of current thread, SQLite transactions are per thread.
+    private final ThreadLocal<Transaction> mTransaction = new ThreadLocal<Transaction>();
 
     private void log(String msg) {
         Aorm.logv(msg);
@@ -103,12 +120,138 @@ public class Session {
         mHelper.getWritableDatabase().execSQL(sql, args);
     }
 
+    /* package */SQLiteDatabase getWritableDatabase() {
+        return mHelper.getWritableDatabase();
+    }
+
+    protected long executeInsert(String sql, Object[] args) {
+        return mStatements.executeInsert(mHelper.getWritableDatabase(), sql,
+                args);
+    }
+
+    protected int executeUpdateDelete(String sql, Object[] args) {
+        return mStatements.executeUpdateDelete(
+                mHelper.getWritableDatabase(), sql, args);
+    }
+
+    protected long simpleQueryForLong(String sql, Object[] args) {
+        try {
+            return mStatements.simpleQueryForLong(
+                    mHelper.getReadableDatabase(), sql, args);
+        } catch (SQLiteDoneException e) {
+            // no row
+            return 0;
+        }
+    }
+
+    /**
+     * Get the cache of compiled statements used by the native write methods,
+     * {@link #count(Criteria)} and {@link #sum(Criteria, String)}. Query
+     * statements returning cursors are cached by the Android database
+     * connection itself.
+     * 
+     * @return statement cache of this session
+     */
+    public StatementCache getStatementCache() {
+        return mStatements;
+    }
+
+    /**
+     * Begin a transaction, may be nested. The change notifications of this
+     * thread are deferred until the outermost transaction ends, and are sent
+     * once per class only if it's committed.
+     * 
+     * <pre>
+     * session.beginTransaction();
+     * try {
+     *     ...
+     *     session.setTransactionSuccessful();
+     * } finally {
+     *     session.endTransaction();
+     * }
+     * </pre>
+     * 
+     * @see #runInTransaction(Callable)
+     */
     public void beginTransaction() {
         mHelper.getWritableDatabase().beginTransaction();
+        Transaction tx = mTransaction.get();
+        if (tx == null) {
+            tx = new Transaction();
+            mTransaction.set(tx);
+        }
+        tx.depth++;
+        tx.success = false;
+    }
+
+    /**
+     * Marks the current transaction as successful, so it's committed when
+     * {@link #endTransaction()} called. Do no more database work between
+     * this and calling endTransaction.
+     */
+    public void setTransactionSuccessful() {
+        mHelper.getWritableDatabase().setTransactionSuccessful();
+        Transaction tx = mTransaction.get();
+        if (tx != null) {
+            tx.success = true;
+        }
     }
 
+    /**
+     * End a transaction, it's committed if
+     * {@link #setTransactionSuccessful()} called, otherwise rolled back.
+     */
     public void endTransaction() {
-        mHelper.getWritableDatabase().endTransaction();
+        Transaction tx = mTransaction.get();
+        boolean ended = false;
+        try {
+            mHelper.getWritableDatabase().endTransaction();
+            ended = true;
+        } finally {
+            if (tx != null) {
+                if (!tx.success || !ended) {
+                    // any level failed rolls back all, so does a failed
+                    // commit, e.g. disk full
+                    tx.failed = true;
+                }
+                tx.success = false;
+                if (--tx.depth <= 0) {
+                    mTransaction.remove();
+                    if (!tx.failed) {
+                        for (Class<?> clazz : tx.changed) {
+                            notifySessionListener(clazz);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the task in a transaction, commit if it returns normally or roll
+     * back if it throws. The changed classes are collected and each listener
+     * is notified once per class after commit.
+     * 
+     * @param task
+     *            the task to run
+     * @return result of the task
+     * @throws ORMException
+     *             wraps the checked exception thrown by the task, runtime
+     *             exceptions are thrown as is.
+     */
+    public <T> T runInTransaction(Callable<T> task) {
+        beginTransaction();
+        try {
+            T result = task.call();
+            setTransactionSuccessful();
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ORMException(e);
+        } finally {
+            endTransaction();
+        }
     }
 
     /**
@@ -128,11 +271,15 @@ public class Session {
      * @return the row ID of the newly inserted row, or -1 if an error occurred
      */
     public long insert(Object obj, String nullColumnHack) {
-        Row row = new Row(obj);
-        ContentValues values = row.getContentValues();
-        log("insert " + row.table + " values: " + values);
-        long id = insert(row.table, nullColumnHack, values);
-
+        long id;
+        try {
+            // an empty row is inserted with DEFAULT VALUES, no hack needed
+            id = newWriter(obj.getClass()).insert(obj);
+        } catch (SQLException e) {
+            log("insert error : " + e);
+            id = -1;
+        }
+        log("insert rowID : " + id);
         notifySessionListener(obj.getClass());
         return id;
     }
@@ -149,6 +296,125 @@ public class Session {
         return insert(obj, null);
     }
 
+    /**
+     * Insert all the objects in one transaction. The INSERT statement is
+     * compiled once for every class (and set of non-null columns) and reused,
+     * the session listeners are notified once per class after commit.
+     * 
+     * @param objs
+     *            the objects, may be different classes.
+     * @return the row IDs of the newly inserted rows, in iteration order.
+     */
+    public long[] insertAll(Collection<?> objs) {
+        long[] ids = new long[objs.size()];
+        Map<Class<?>, EntityWriter> writers = new LinkedHashMap<Class<?>, EntityWriter>();
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        log("insertAll " + ids.length + " objects");
+        beginTransaction();
+        try {
+            int i = 0;
+            for (Object obj : objs) {
+                ids[i++] = getWriter(writers, db, obj.getClass()).insert(obj);
+            }
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+        for (Class<?> clazz : writers.keySet()) {
+            notifySessionListener(clazz);
+        }
+        return ids;
+    }
+
+    /**
+     * Insert all the objects with multi-row
+     * <code>INSERT INTO t (cols) VALUES (...),(...)</code> statements in one
+     * transaction, it's faster than {@link #insertAll(Collection)} for many
+     * rows of narrow tables. Unlike {@link #insert(Object)}, all the columns
+     * except primary key are written and null values are written as NULL,
+     * not the column default values. The session listeners are notified once
+     * per class after commit.
+     * 
+     * @param objs
+     *            the objects, may be different classes.
+     * @return the number of rows inserted
+     */
+    public int insertAllRows(Collection<?> objs) {
+        Map<Class<?>, List<Object>> groups = new LinkedHashMap<Class<?>, List<Object>>();
+        for (Object obj : objs) {
+            List<Object> list = groups.get(obj.getClass());
+            if (list == null) {
+                list = new ArrayList<Object>();
+                groups.put(obj.getClass(), list);
+            }
+            list.add(obj);
+        }
+        int count = 0;
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        beginTransaction();
+        try {
+            for (Map.Entry<Class<?>, List<Object>> entry : groups.entrySet()) {
+                EntityWriter writer = new EntityWriter(db, mStatements,
+                        entry.getKey());
+                count += writer.insertRows(entry.getValue());
+            }
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+        log("insertAllRows counts : " + count);
+        for (Class<?> clazz : groups.keySet()) {
+            notifySessionListener(clazz);
+        }
+        return count;
+    }
+
+    /**
+     * Update all the objects by primary key in one transaction. The UPDATE
+     * statement is compiled once for every class (and set of non-null
+     * columns) and reused, the session listeners are notified once per class
+     * after commit.
+     * 
+     * @param objs
+     *            the objects, may be different classes.
+     * @return the number of rows affected
+     */
+    public int updateAll(Collection<?> objs) {
+        int count = 0;
+        Map<Class<?>, EntityWriter> writers = new LinkedHashMap<Class<?>, EntityWriter>();
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        log("updateAll " + objs.size() + " objects");
+        beginTransaction();
+        try {
+            for (Object obj : objs) {
+                count += getWriter(writers, db, obj.getClass()).update(obj);
+            }
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+        log("updateAll counts : " + count);
+        for (Class<?> clazz : writers.keySet()) {
+            notifySessionListener(clazz);
+        }
+        return count;
+    }
+
+    private EntityWriter newWriter(Class<?> clazz) {
+        return new EntityWriter(mHelper.getWritableDatabase(), mStatements,
+                clazz);
+    }
+
+    private EntityWriter getWriter(Map<Class<?>, EntityWriter> writers,
+            SQLiteDatabase db, Class<?> clazz) {
+        EntityWriter writer = writers.get(clazz);
+        if (writer == null) {
+            writer = new EntityWriter(db, mStatements, clazz);
+            writers.put(clazz, writer);
+        }
+        return writer;
+    }
+
     /**
      * Insert the object as a row into your database with a native SQL.
      * 
@@ -181,7 +447,7 @@ public class Session {
         sb.append(")");
         String sql = sb.toString();
         log("insertNative sql: " + sql + "; args: " + row.args);
-        execSQL(sql, row.getArgsArray());
+        executeInsert(sql, row.getArgsArray());
         notifySessionListener(obj.getClass());
     }
 
@@ -196,7 +462,7 @@ public class Session {
      *         affected when updated
      */
     public long insertOrUpdate(Object obj) {
-        return insert(obj, null);
+        return insertOrUpdate(obj, null);
     }
 
     /**
@@ -212,25 +478,95 @@ public class Session {
      *         affected when updated
      */
     public long insertOrUpdate(Object obj, String nullColumnHack) {
-        long ret = -1;
-        Row row = new Row(obj);
-        ContentValues values = row.getContentValues();
-
-        long pkLong = row.getId();
-        boolean update = Aorm.getExactInsertOrUpdate() ? get(obj) != null
-                : pkLong > 0;
-        String str = update ? "update" : "insert";
-        log("insertOrUpdate(" + str + ") " + row.table + " values: " + values);
-        if (update) {
-            ret = update(row.table, values, row.pk + "=?",
-                    new String[] { String.valueOf(row.pkValue) });
+        long ret;
+        EntityWriter writer = newWriter(obj.getClass());
+        Object pkValue = writer.getPkValue(obj);
+        long pkLong = pkValue instanceof Number ? ((Number) pkValue)
+                .longValue() : 0;
+        boolean exact = Aorm.getExactInsertOrUpdate();
+        if (exact) {
+            // try update first instead of querying the object
+            beginTransaction();
+            try {
+                ret = writer.updateColumns(obj);
+                if (ret == 0 && !writer.exists(pkValue)) {
+                    ret = writer.insert(obj);
+                }
+                setTransactionSuccessful();
+            } finally {
+                endTransaction();
+            }
+        } else if (pkLong > 0) {
+            ret = writer.updateColumns(obj);
         } else {
-            ret = insert(row.table, nullColumnHack, values);
+            ret = writer.insert(obj);
         }
+        log("insertOrUpdate" + (exact ? "(exact) " : " ")
+                + obj.getClass().getName() + " : " + ret);
         notifySessionListener(obj.getClass());
         return ret;
     }
 
+    /**
+     * Insert the object or update the existing row with same primary key, with
+     * no query before writing. The strategy is chosen per class by
+     * {@link cn.ieclipse.aorm.annotation.Table#replace()}: a single
+     * <code>INSERT OR REPLACE</code> statement, or an <code>UPDATE</code> by
+     * primary key followed by an <code>INSERT</code> only if no row updated.
+     * The object is inserted if the primary key is not set. It runs in a
+     * transaction, so the update and insert are atomic. A class with lazy
+     * columns can't use <code>INSERT OR REPLACE</code>, it throws
+     * {@link ORMException}.
+     * 
+     * @param obj
+     *            the object instance
+     * @return the row ID of the inserted row or the primary key value of the
+     *         updated row
+     */
+    public long upsert(Object obj) {
+        long id;
+        beginTransaction();
+        try {
+            id = newWriter(obj.getClass()).upsert(obj);
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+        log("upsert " + obj.getClass().getName() + " id : " + id);
+        notifySessionListener(obj.getClass());
+        return id;
+    }
+
+    /**
+     * Upsert all the objects in one transaction, the session listeners are
+     * notified once per class after commit.
+     * 
+     * @see #upsert(Object)
+     * @param objs
+     *            the objects, may be different classes.
+     * @return the row IDs, in iteration order.
+     */
+    public long[] upsertAll(Collection<?> objs) {
+        long[] ids = new long[objs.size()];
+        Map<Class<?>, EntityWriter> writers = new LinkedHashMap<Class<?>, EntityWriter>();
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        log("upsertAll " + ids.length + " objects");
+        beginTransaction();
+        try {
+            int i = 0;
+            for (Object obj : objs) {
+                ids[i++] = getWriter(writers, db, obj.getClass()).upsert(obj);
+            }
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+        for (Class<?> clazz : writers.keySet()) {
+            notifySessionListener(clazz);
+        }
+        return ids;
+    }
+
     /**
      * Update the object to database.
      * 
@@ -239,11 +575,20 @@ public class Session {
      * @return the number of rows affected
      */
     public int update(Object obj) {
-        Row row = new Row(obj);
-        ContentValues values = row.getContentValues();
-        String where = row.pk + "=" + row.pkValue;
-        log("update " + row.table + " values: " + values);
-        int count = update(row.table, values, where, null);
+        if (Aorm.isDirtyTracking()) {
+            Object[] snapshot = DirtyTracker.get(obj);
+            if (snapshot != null) {
+                int count = newWriter(obj.getClass()).updateChanged(obj,
+                        snapshot);
+                log("update changed columns counts : " + count);
+                if (count > 0) {
+                    notifySessionListener(obj.getClass());
+                }
+                return count;
+            }
+        }
+        int count = newWriter(obj.getClass()).updateColumns(obj);
+        log("update counts : " + count);
         notifySessionListener(obj.getClass());
         return count;
     }
@@ -264,15 +609,30 @@ public class Session {
                 criteria.getRoot().getClazz());
         String sql = criteria.toSQL();
         String where = criteria.getWhere();
-        String[] args = criteria.getStringArgs();
-        ContentValues colValues = new ContentValues(values.size());
+        String[] whereArgs = criteria.getStringArgs();
+        StringBuilder sb = new StringBuilder();
+        sb.append("UPDATE ");
+        sb.append(table);
+        sb.append(" SET ");
+        Object[] args = new Object[values.size() + whereArgs.length];
+        int i = 0;
         for (String key : values.keySet()) {
-            Row.putColumnValues(colValues, criteria.property2Column(key),
-                    values.get(key));
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(criteria.property2Column(key));
+            sb.append("=?");
+            args[i++] = values.get(key);
+        }
+        if (where != null && where.length() > 0) {
+            sb.append(" WHERE ");
+            sb.append(where);
         }
-        log("update " + table + " values: " + colValues + ", where = " + where
-                + ", args = " + criteria.getArgs());
-        int count = update(table, colValues, where, args);
+        System.arraycopy(whereArgs, 0, args, i, whereArgs.length);
+        String sql2 = sb.toString();
+        log("update sql: " + sql2 + ", args = " + Arrays.toString(args));
+        int count = executeUpdateDelete(sql2, args);
+        log("update counts : " + count);
         notifySessionListener(criteria.getRoot().getClazz());
         return count;
     }
@@ -302,16 +662,17 @@ public class Session {
                 sb.append(",");
             }
         }
+        ArrayList<Object> args = new ArrayList<Object>(row.args);
         if (pk != null) {
             sb.append(" WHERE ");
             sb.append(pk);
-            sb.append('=');
-            sb.append(pkValue);
+            sb.append("=?");
+            args.add(pkValue);
         }
 
         String sql = sb.toString();
-        log("updateNative sql: " + sql + " ,args:" + row.args);
-        execSQL(sql, row.getArgsArray());
+        log("updateNative sql: " + sql + " ,args:" + args);
+        executeUpdateDelete(sql, args.toArray());
         notifySessionListener(obj.getClass());
     }
 
@@ -348,6 +709,113 @@ public class Session {
         return count;
     }
 
+    /**
+     * Delete rows from database by PK list. The ids are deleted with
+     * <code>pk IN (?,...)</code> statements in chunks under the SQLite bound
+     * variables limit, all chunks are in one transaction and the session
+     * listeners are notified once.
+     * 
+     * @param clazz
+     *            the object class
+     * @param ids
+     *            the PK values of objects
+     * @return the number of rows deleted
+     */
+    public int deleteByIds(Class<?> clazz, long[] ids) {
+        return updateByIds(clazz, ids, null, "DELETE FROM "
+                + Mapping.getInstance().getTableName(clazz));
+    }
+
+    /**
+     * Update rows of database by PK list. The ids are updated with
+     * <code>pk IN (?,...)</code> statements in chunks under the SQLite bound
+     * variables limit, all chunks are in one transaction and the session
+     * listeners are notified once.
+     * 
+     * @param clazz
+     *            the object class
+     * @param ids
+     *            the PK values of objects
+     * @param values
+     *            new values to update. The key of ContentValues is java
+     *            property name.
+     * @return the number of rows affected
+     */
+    public int updateByIds(Class<?> clazz, long[] ids, ContentValues values) {
+        if (values == null || values.size() == 0) {
+            return 0;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("UPDATE ");
+        sb.append(Mapping.getInstance().getTableName(clazz));
+        sb.append(" SET ");
+        Object[] args = new Object[values.size()];
+        int i = 0;
+        for (String key : values.keySet()) {
+            String column = Mapping.getInstance().getColumnName(key, clazz);
+            if (column == null) {
+                throw new ORMException("Mapping Error: No such maping for "
+                        + key + " in " + clazz.getName());
+            }
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(column);
+            sb.append("=?");
+            args[i++] = values.get(key);
+        }
+        return updateByIds(clazz, ids, args, sb.toString());
+    }
+
+    // execute prefix + WHERE pk IN (...) in chunks
+    private int updateByIds(Class<?> clazz, long[] ids, Object[] prefixArgs,
+            String prefix) {
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+        int prefixSize = prefixArgs == null ? 0 : prefixArgs.length;
+        int chunk = EntityWriter.MAX_VARIABLES - prefixSize;
+        if (chunk <= 0) {
+            throw new ORMException("Too many values: " + prefixSize);
+        }
+        String pk = Mapping.getInstance().getPK(clazz);
+        int count = 0;
+        String sql = null;
+        Object[] args = null;
+        beginTransaction();
+        try {
+            for (int start = 0; start < ids.length; start += chunk) {
+                int size = Math.min(chunk, ids.length - start);
+                // the full chunks share the statement
+                if (args == null || args.length != prefixSize + size) {
+                    StringBuilder sb = new StringBuilder(prefix);
+                    sb.append(" WHERE ");
+                    sb.append(pk);
+                    sb.append(" IN (");
+                    for (int i = 0; i < size; i++) {
+                        sb.append(i == 0 ? "?" : ",?");
+                    }
+                    sb.append(")");
+                    sql = sb.toString();
+                    args = new Object[prefixSize + size];
+                    if (prefixSize > 0) {
+                        System.arraycopy(prefixArgs, 0, args, 0, prefixSize);
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    args[prefixSize + i] = ids[start + i];
+                }
+                count += executeUpdateDelete(sql, args);
+            }
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+        log(prefix + " by " + ids.length + " ids, counts : " + count);
+        notifySessionListener(clazz);
+        return count;
+    }
+
     /**
      * Delete a row from database by PK with native SQL.
      * 
@@ -364,11 +832,10 @@ public class Session {
         sb.append(table);
         sb.append(" WHERE ");
         sb.append(pk);
-        sb.append('=');
-        sb.append(id);
+        sb.append("=?");
         String sql = sb.toString();
-        log("deleteByIdNative sql: " + sql);
-        execSQL(sql);
+        log("deleteByIdNative sql: " + sql + " ,id:" + id);
+        executeUpdateDelete(sql, new Object[] { id });
         notifySessionListener(clazz);
     }
 
@@ -386,7 +853,7 @@ public class Session {
             sb.append(table);
             String sql = sb.toString();
             log("deleteAll sql: " + sql);
-            execSQL(sql);
+            executeUpdateDelete(sql, null);
             notifySessionListener(clazz);
         }
     }
@@ -453,14 +920,7 @@ public class Session {
         String sql = criteria.toSQL();
         String sql2 = "SELECT COUNT(_id) " + sql.substring(sql.indexOf("FROM"));
         log("count sql: " + sql2);
-        Cursor c = rawQuery(sql2, criteria.getStringArgs());
-        if (c != null) {
-            if (c.moveToFirst()) {
-                return c.getInt(0);
-            }
-            c.close();
-        }
-        return 0;
+        return (int) simpleQueryForLong(sql2, criteria.getStringArgs());
     }
 
     /**
@@ -479,14 +939,173 @@ public class Session {
         String sql2 = "SELECT SUM(" + column + ") "
                 + sql.substring(sql.indexOf("FROM"));
         log("sum sql: " + sql2);
-        Cursor c = rawQuery(sql2, criteria.getStringArgs());
-        if (c != null) {
-            if (c.moveToFirst()) {
-                return c.getInt(0);
+        return (int) simpleQueryForLong(sql2, criteria.getStringArgs());
+    }
+
+    /**
+     * Query a single property of {@link Criteria} into long array, no object
+     * created per row.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param property
+     *            the java property to query.
+     * @return values of the property, null column value is 0.
+     */
+    public long[] listLongs(Criteria criteria, String property) {
+        Cursor c = queryColumn(criteria, property);
+        if (c == null) {
+            return new long[0];
+        }
+        try {
+            long[] ret = new long[c.getCount()];
+            int i = 0;
+            for (c.moveToFirst(); !c.isAfterLast() && i < ret.length; c
+                    .moveToNext()) {
+                ret[i++] = c.getLong(0);
+            }
+            return ret;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Query a single property of {@link Criteria} into int array, no object
+     * created per row.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param property
+     *            the java property to query.
+     * @return values of the property, null column value is 0.
+     */
+    public int[] listInts(Criteria criteria, String property) {
+        Cursor c = queryColumn(criteria, property);
+        if (c == null) {
+            return new int[0];
+        }
+        try {
+            int[] ret = new int[c.getCount()];
+            int i = 0;
+            for (c.moveToFirst(); !c.isAfterLast() && i < ret.length; c
+                    .moveToNext()) {
+                ret[i++] = c.getInt(0);
+            }
+            return ret;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Query a single property of {@link Criteria} into double array, no
+     * object created per row.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param property
+     *            the java property to query.
+     * @return values of the property, null column value is 0.
+     */
+    public double[] listDoubles(Criteria criteria, String property) {
+        Cursor c = queryColumn(criteria, property);
+        if (c == null) {
+            return new double[0];
+        }
+        try {
+            double[] ret = new double[c.getCount()];
+            int i = 0;
+            for (c.moveToFirst(); !c.isAfterLast() && i < ret.length; c
+                    .moveToNext()) {
+                ret[i++] = c.getDouble(0);
+            }
+            return ret;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Query a single property of {@link Criteria} into String array.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param property
+     *            the java property to query.
+     * @return values of the property, may contain null.
+     */
+    public String[] listStrings(Criteria criteria, String property) {
+        Cursor c = queryColumn(criteria, property);
+        if (c == null) {
+            return new String[0];
+        }
+        try {
+            String[] ret = new String[c.getCount()];
+            int i = 0;
+            for (c.moveToFirst(); !c.isAfterLast() && i < ret.length; c
+                    .moveToNext()) {
+                ret[i++] = c.getString(0);
             }
+            return ret;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Query with a {@link Criteria} into a column oriented result, it's more
+     * compact than objects list for analytics over large results.
+     * 
+     * @see ColumnarResult
+     * @param criteria
+     *            the criteria query instance.
+     * @return columnar result, never null
+     */
+    public ColumnarResult queryColumnar(Criteria criteria) {
+        Cursor c = query(criteria);
+        if (c == null) {
+            return ColumnarResult.empty();
+        }
+        try {
+            return ColumnarResult.create(c, criteria);
+        } finally {
             c.close();
         }
-        return 0;
+    }
+
+    /**
+     * Export the result of a {@link Criteria} query to CSV or JSON lines. The
+     * rows are streamed to the channel through a direct buffer, no object is
+     * created, use {@link TableExporter} directly to tune the buffer or get
+     * the throughput.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param out
+     *            output channel, not closed after export
+     * @param format
+     *            {@link DataFormat#CSV} or {@link DataFormat#JSON_LINES}
+     * @return the number of rows exported
+     * @throws IOException
+     *             if failed to write
+     */
+    public long export(Criteria criteria, WritableByteChannel out,
+            String format) throws IOException {
+        TableExporter exporter = new TableExporter(this);
+        long rows = exporter.export(criteria, out, format);
+        log("export " + rows + " rows, " + exporter.getByteCount()
+                + " bytes in " + (exporter.getElapsedTime() / 1000000) + "ms");
+        return rows;
+    }
+
+    private Cursor queryColumn(Criteria criteria, String property) {
+        String sql = criteria.toSQL();
+        String column = criteria.property2Column(property);
+        String sql2 = "SELECT " + column + " "
+                + sql.substring(sql.indexOf("FROM"));
+        log("query column sql: " + sql2);
+        return rawQuery(sql2, criteria.getStringArgs());
     }
 
     /**
@@ -550,15 +1169,353 @@ public class Session {
     }
 
     /**
-     * Query with a {@link Criteria} and convert the first result record to
-     * object.
+     * Same as {@link #listAll(Criteria)}, but the objects of the same class
+     * and same primary key are created only once in this query and shared by
+     * all the rows. e.g. a customer with 500 orders is one customer object in
+     * the 500 rows.
      * 
      * @param criteria
      *            the criteria query instance.
-     * @return converted object
+     * @return converted objects list
      */
-    public Object get(Criteria criteria) {
-        List list = list(criteria);
+    public List<Object[]> listAllDedup(Criteria criteria) {
+        List<Object[]> list = new ArrayList<Object[]>();
+        Cursor c = query(criteria);
+        if (c == null) {
+            return list;
+        }
+        try {
+            Class<?>[] classes = criteria.getProjectionClass();
+            IdentityRowMapper mapper = new IdentityRowMapper(RowMapper.get(c,
+                    classes, criteria.getProjectionSeparators()), classes);
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                list.add(mapper.mapAll(c));
+            }
+        } finally {
+            c.close();
+        }
+        return list;
+    }
+
+    /**
+     * Query joined criteria and group the child objects under root object.
+     * Objects are deduplicated by primary key like
+     * {@link #listAllDedup(Criteria)}.
+     * 
+     * <pre>
+     * Criteria criteria = Criteria.create(Customer.class, &quot;c&quot;);
+     * criteria.addChild(Order.class, &quot;o&quot;, Criteria.INNER_JOIN,
+     *         Restrictions.eqProperty(&quot;c.id&quot;, &quot;o.customerId&quot;));
+     * Map&lt;Customer, List&lt;Object[]&gt;&gt; map = session.listGrouped(criteria);
+     * for (Customer c : map.keySet()) {
+     *     for (Object[] children : map.get(c)) {
+     *         Order o = (Order) children[0];
+     *     }
+     * }
+     * </pre>
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @return ordered map of root object to the rest projection objects of
+     *         every row, the keys are compared by identity, not equals().
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Map<T, List<Object[]>> listGrouped(Criteria criteria) {
+        Map<T, List<Object[]>> map = new IdentityLinkedMap<T, List<Object[]>>();
+        for (Object[] row : listAllDedup(criteria)) {
+            T parent = (T) row[0];
+            List<Object[]> children = map.get(parent);
+            if (children == null) {
+                children = new ArrayList<Object[]>();
+                map.put(parent, children);
+            }
+            Object[] child = new Object[row.length - 1];
+            System.arraycopy(row, 1, child, 0, child.length);
+            children.add(child);
+        }
+        return map;
+    }
+
+    /**
+     * Same as {@link #list(Criteria)}, but objects are created on all CPU
+     * cores. The cursor rows are copied into a compact buffer first, then
+     * converted to objects in parallel chunks, the result order is kept. Use
+     * it for large results only.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @return converted objects list
+     */
+    @SuppressWarnings("rawtypes")
+    public List listParallel(Criteria criteria) {
+        Cursor c = query(criteria);
+        if (c == null) {
+            return new ArrayList<Object>();
+        }
+        Criteria root = criteria.getRoot();
+        RowMapper mapper;
+        try {
+            mapper = RowMapper.get(c, root.getClazz(), root.getAlias());
+        } catch (RuntimeException e) {
+            c.close();
+            throw e;
+        }
+        return ParallelMapper.map(c, mapper, false);
+    }
+
+    /**
+     * Same as {@link #listAll(Criteria)}, but objects are created on all CPU
+     * cores.
+     * 
+     * @see #listParallel(Criteria)
+     * @param criteria
+     *            the criteria query instance.
+     * @return converted objects list
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<Object[]> listAllParallel(Criteria criteria) {
+        Cursor c = query(criteria);
+        if (c == null) {
+            return new ArrayList<Object[]>();
+        }
+        RowMapper mapper;
+        try {
+            mapper = RowMapper.get(c, criteria.getProjectionClass(),
+                    criteria.getProjectionSeparators());
+        } catch (RuntimeException e) {
+            c.close();
+            throw e;
+        }
+        return (List) ParallelMapper.map(c, mapper, true);
+    }
+
+    /**
+     * Query a page with keyset pagination. Unlike
+     * {@link Criteria#setLimit(int, int)}, the rows before the page are not
+     * scanned, so deep pages are as fast as the first one. The criteria is
+     * not changed, its seek state is restored after the query.
+     * 
+     * <pre>
+     * Criteria criteria = Criteria.create(A.class);
+     * criteria.addOrder(Order.desc(&quot;time&quot;));
+     * Page&lt;A&gt; page = session.page(criteria, 20, null);
+     * while (page.hasNext()) {
+     *     page = session.page(criteria, 20, page.getNextToken());
+     * }
+     * </pre>
+     * 
+     * @see Criteria#setSeek(int, Object[])
+     * @param criteria
+     *            the criteria query instance.
+     * @param size
+     *            page size
+     * @param token
+     *            the continuation token of previous page, null for the first
+     *            page.
+     * @return page of root criteria objects
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Page<T> page(Criteria criteria, int size, Object[] token) {
+        // the criteria is reused by caller, restore it after query
+        int oldSize = criteria.getSeekSize();
+        Object[] oldValues = criteria.getSeekLastValues();
+        criteria.setSeek(size, token);
+        try {
+            List<T> items = list(criteria);
+            Object[] next = null;
+            if (size > 0 && items.size() == size) {
+                next = criteria.getSeekValues(items.get(size - 1));
+            }
+            return new Page<T>(items, next);
+        } finally {
+            criteria.setSeek(oldSize, oldValues);
+        }
+    }
+
+    /**
+     * Query with a {@link Criteria} and iterate the result lazily, the object
+     * is converted from cursor row by row when iterating, so the whole result
+     * set needn't be loaded into memory.
+     * 
+     * @see CursorIterator
+     * @param criteria
+     *            the criteria query instance.
+     * @return iterator of root criteria objects
+     */
+    public <T> CursorIterator<T> iterate(Criteria criteria) {
+        Cursor c = query(criteria);
+        if (c == null) {
+            return new CursorIterator<T>(null, null, false);
+        }
+        Criteria root = criteria.getRoot();
+        try {
+            return new CursorIterator<T>(c, RowMapper.get(c,
+                    root.getClazz(), root.getAlias()), false);
+        } catch (RuntimeException e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #iterate(Criteria)}, but every item is the projection
+     * objects array, like {@link #listAll(Criteria)}.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @return iterator of objects array
+     */
+    public CursorIterator<Object[]> iterateAll(Criteria criteria) {
+        Cursor c = query(criteria);
+        if (c == null) {
+            return new CursorIterator<Object[]>(null, null, true);
+        }
+        try {
+            return new CursorIterator<Object[]>(c, RowMapper.get(c,
+                    criteria.getProjectionClass(),
+                    criteria.getProjectionSeparators()), true);
+        } catch (RuntimeException e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Query with a {@link Criteria} and pass every converted object to
+     * callback. The cursor is closed before return.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param callback
+     *            row callback
+     */
+    public <T> void forEach(Criteria criteria, RowCallback<T> callback) {
+        CursorIterator<T> it = iterate(criteria);
+        try {
+            while (it.hasNext()) {
+                if (!callback.onRow(it.next())) {
+                    break;
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Same as {@link #forEach(Criteria, RowCallback)}, but every row is the
+     * projection objects array, like {@link #listAll(Criteria)}.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param callback
+     *            row callback
+     */
+    public void forEachAll(Criteria criteria, RowCallback<Object[]> callback) {
+        CursorIterator<Object[]> it = iterateAll(criteria);
+        try {
+            while (it.hasNext()) {
+                if (!callback.onRow(it.next())) {
+                    break;
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Query with a {@link Criteria} and fill every row into the same object,
+     * then pass it to callback. No object created per row, it's useful for
+     * aggregate scanning.
+     * <p>
+     * <strong>Note:</strong> The object is overwritten by next row, don't
+     * keep it after callback returned. Properties not in query projection
+     * keep the old value. The reused object is not dirty tracked, so
+     * {@link #update(Object)} writes all its non-null columns.
+     * </p>
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param reuse
+     *            root criteria object to fill
+     * @param callback
+     *            row callback
+     */
+    public <T> void scan(Criteria criteria, T reuse,
+            RowCallback<? super T> callback) {
+        Cursor c = query(criteria);
+        if (c == null) {
+            return;
+        }
+        try {
+            Criteria root = criteria.getRoot();
+            RowMapper mapper = RowMapper.get(c, root.getClazz(),
+                    root.getAlias());
+            if (Aorm.isDirtyTracking()) {
+                // the snapshot of a previous load is stale now
+                DirtyTracker.remove(reuse);
+            }
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                mapper.fill(c, reuse);
+                if (!callback.onRow(reuse)) {
+                    break;
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Same as {@link #scan(Criteria, Object, RowCallback)}, but fill every row
+     * into the same projection objects array, like {@link #listAll(Criteria)}.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param reuse
+     *            objects to fill, the length must be the count of projection
+     *            criteria, null elements are created at the first row.
+     * @param callback
+     *            row callback
+     */
+    public void scanAll(Criteria criteria, Object[] reuse,
+            RowCallback<Object[]> callback) {
+        Cursor c = query(criteria);
+        if (c == null) {
+            return;
+        }
+        try {
+            RowMapper mapper = RowMapper.get(c, criteria.getProjectionClass(),
+                    criteria.getProjectionSeparators());
+            if (Aorm.isDirtyTracking()) {
+                for (Object obj : reuse) {
+                    if (obj != null) {
+                        DirtyTracker.remove(obj);
+                    }
+                }
+            }
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                mapper.fillAll(c, reuse);
+                if (!callback.onRow(reuse)) {
+                    break;
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Query with a {@link Criteria} and convert the first result record to
+     * object.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @return converted object
+     */
+    public Object get(Criteria criteria) {
+        List list = list(criteria);
         if (!list.isEmpty()) {
             return list.get(0);
         }
@@ -576,12 +1533,9 @@ public class Session {
      */
     public <T> T get(Class<T> clazz, long id) {
         String table = Mapping.getInstance().getTableName(clazz);
-        List<ColumnWrap> temp = Mapping.getInstance().getColumns(clazz);
-        String[] columns = new String[temp.size()];
-        int i = 0;
-        for (ColumnWrap c : temp) {
-            columns[i++] = c.getColumnName();
-        }
+        // default projection, lazy columns excluded
+        List<String> temp = Mapping.getInstance().getColumns(null, clazz);
+        String[] columns = temp.toArray(new String[temp.size()]);
         String pk = Mapping.getInstance().getPK(clazz);
         // Criteria criteria = Criteria.create(clazz).add(Restrictions.eq(pk,
         // id));
@@ -619,14 +1573,348 @@ public class Session {
         return null;
     }
 
+    /**
+     * Load the lazy columns of the object by primary key.
+     * 
+     * @see cn.ieclipse.aorm.annotation.Column#lazy()
+     * @param obj
+     *            the object has been set the primary key value.
+     */
+    public void loadLazy(Object obj) {
+        List<Object> list = new ArrayList<Object>(1);
+        list.add(obj);
+        loadLazy(list);
+    }
+
+    /**
+     * Load the lazy columns of all the objects, the columns are fetched in
+     * batches by primary key, not one query per object.
+     * 
+     * @see cn.ieclipse.aorm.annotation.Column#lazy()
+     * @param list
+     *            objects have been set the primary key value, may be
+     *            different classes.
+     */
+    public void loadLazy(List<?> list) {
+        Map<Class<?>, Map<Long, List<Object>>> groups = new LinkedHashMap<Class<?>, Map<Long, List<Object>>>();
+        for (Object obj : list) {
+            Class<?> clazz = obj.getClass();
+            if (Mapping.getInstance().getLazyColumns(clazz).isEmpty()) {
+                continue;
+            }
+            Map<Long, List<Object>> group = groups.get(clazz);
+            if (group == null) {
+                group = new LinkedHashMap<Long, List<Object>>();
+                groups.put(clazz, group);
+            }
+            Long id = getPkValue(obj);
+            List<Object> objs = group.get(id);
+            if (objs == null) {
+                objs = new ArrayList<Object>(1);
+                group.put(id, objs);
+            }
+            objs.add(obj);
+        }
+        for (Map.Entry<Class<?>, Map<Long, List<Object>>> entry : groups
+                .entrySet()) {
+            loadLazy(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static final int LAZY_BATCH = 500;
+
+    private void loadLazy(Class<?> clazz, Map<Long, List<Object>> group) {
+        Mapping mapping = Mapping.getInstance();
+        List<ColumnWrap> lazy = mapping.getLazyColumns(clazz);
+        String pk = mapping.getPK(clazz);
+        @SuppressWarnings("unchecked")
+        RowBinder<Object> binder = (RowBinder<Object>) mapping
+                .getBinder(clazz);
+        int[] columns = new int[lazy.size()];
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ");
+        sb.append(pk);
+        for (int i = 0; i < columns.length; i++) {
+            String colName = lazy.get(i).getColumnName();
+            columns[i] = mapping.getBinderColumn(colName, clazz);
+            sb.append(", ");
+            sb.append(colName);
+        }
+        sb.append(" FROM ");
+        sb.append(mapping.getTableName(clazz));
+        sb.append(" WHERE ");
+        sb.append(pk);
+        sb.append(" IN (");
+        String prefix = sb.toString();
+
+        List<Long> ids = new ArrayList<Long>(group.keySet());
+        for (int start = 0; start < ids.size(); start += LAZY_BATCH) {
+            int end = Math.min(ids.size(), start + LAZY_BATCH);
+            String[] args = new String[end - start];
+            StringBuilder sql = new StringBuilder(prefix);
+            for (int i = start; i < end; i++) {
+                sql.append(i > start ? ",?" : "?");
+                args[i - start] = String.valueOf(ids.get(i));
+            }
+            sql.append(")");
+            log("loadLazy sql: " + sql);
+            Cursor c = rawQuery(sql.toString(), args);
+            if (c == null) {
+                continue;
+            }
+            try {
+                for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                    List<Object> objs = group.get(c.getLong(0));
+                    if (objs == null) {
+                        continue;
+                    }
+                    for (Object obj : objs) {
+                        for (int i = 0; i < columns.length; i++) {
+                            binder.read(obj, columns[i], c, i + 1);
+                        }
+                        if (Aorm.isDirtyTracking()) {
+                            // loaded values are not changes
+                            DirtyTracker.refresh(obj, binder, columns);
+                        }
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Default chunk size of BLOB streaming, 256K.
+     */
+    public static final int BLOB_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Get length in bytes of a BLOB column value without reading it.
+     * 
+     * @param clazz
+     *            the mapping table class
+     * @param property
+     *            java property name of the BLOB column
+     * @param id
+     *            primary key value of the row
+     * @return length of the value, or -1 if the row not exists or the value
+     *         is null.
+     */
+    public long getBlobLength(Class<?> clazz, String property, long id) {
+        Mapping mapping = Mapping.getInstance();
+        String column = mapping.getColumnName(property, clazz);
+        String sql = "SELECT length(" + column + ") FROM "
+                + mapping.getTableName(clazz) + " WHERE "
+                + mapping.getPK(clazz) + " = ?";
+        log("blob length sql: " + sql);
+        Cursor c = rawQuery(sql, new String[] { String.valueOf(id) });
+        if (c == null) {
+            return -1;
+        }
+        try {
+            if (!c.moveToFirst() || c.isNull(0)) {
+                return -1;
+            }
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Open a stream to read a BLOB column in chunks of
+     * {@link #BLOB_CHUNK_SIZE}.
+     * 
+     * @see #openBlobInput(Class, String, long, int)
+     */
+    public BlobInputStream openBlobInput(Class<?> clazz, String property,
+            long id) {
+        return openBlobInput(clazz, property, id, BLOB_CHUNK_SIZE);
+    }
+
+    /**
+     * Open a stream to read a BLOB column in chunks, every chunk is read with
+     * a <code>substr()</code> query, so a large value is never loaded at
+     * once.
+     * 
+     * @param clazz
+     *            the mapping table class
+     * @param property
+     *            java property name of the BLOB column
+     * @param id
+     *            primary key value of the row
+     * @param chunkSize
+     *            bytes read by one query, must be less than the CursorWindow
+     *            size
+     * @return input stream of the value
+     */
+    public BlobInputStream openBlobInput(Class<?> clazz, String property,
+            long id, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must > 0");
+        }
+        Mapping mapping = Mapping.getInstance();
+        return new BlobInputStream(this, mapping.getTableName(clazz),
+                mapping.getColumnName(property, clazz), mapping.getPK(clazz),
+                id, chunkSize);
+    }
+
+    /**
+     * Open a stream to write a BLOB column in chunks of
+     * {@link #BLOB_CHUNK_SIZE}.
+     * 
+     * @see #openBlobOutput(Class, String, long, boolean, int)
+     */
+    public BlobOutputStream openBlobOutput(Class<?> clazz, String property,
+            long id, boolean append) {
+        return openBlobOutput(clazz, property, id, append, BLOB_CHUNK_SIZE);
+    }
+
+    /**
+     * Open a stream to write a BLOB column of an existing row, every chunk is
+     * appended to the value by a compiled <code>UPDATE</code> statement, so
+     * a large value is never held in memory at once. The session listeners
+     * are notified when the stream closed.
+     * <p>
+     * <strong>Note:</strong> SQLite can't append in place,
+     * <code>col = col || ?</code> rewrites the whole value for every chunk,
+     * so writing <i>n</i> bytes costs O(<i>n</i>&sup2; / chunkSize) I/O. Use
+     * a large chunk size for large values, or write the value with
+     * {@link #insert(Object)} or {@link #update(Object)} if it fits in
+     * memory.
+     * </p>
+     * 
+     * @param clazz
+     *            the mapping table class
+     * @param property
+     *            java property name of the BLOB column
+     * @param id
+     *            primary key value of the row
+     * @param append
+     *            true to append to current value, false to replace it
+     * @param chunkSize
+     *            bytes written by one statement
+     * @return output stream, must be closed.
+     * @throws ORMException
+     *             if the row not exists and not append.
+     */
+    public BlobOutputStream openBlobOutput(Class<?> clazz, String property,
+            long id, boolean append, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must > 0");
+        }
+        Mapping mapping = Mapping.getInstance();
+        return new BlobOutputStream(this, mHelper.getWritableDatabase(),
+                clazz, mapping.getTableName(clazz), mapping.getColumnName(
+                        property, clazz), mapping.getPK(clazz), id, append,
+                chunkSize);
+    }
+
+    /**
+     * Read a range of a BLOB column value.
+     * 
+     * @param clazz
+     *            the mapping table class
+     * @param property
+     *            java property name of the BLOB column
+     * @param id
+     *            primary key value of the row
+     * @param offset
+     *            0 based offset in the value
+     * @param length
+     *            max bytes to read, the bytes are read in chunks of
+     *            {@link #BLOB_CHUNK_SIZE}
+     * @return read-only buffer of the bytes, empty if offset is beyond the end,
+     *         the row not exists or the value is null.
+     */
+    public ByteBuffer readBlob(Class<?> clazz, String property, long id,
+            long offset, int length) {
+        long remain = length <= 0 ? 0 : getBlobLength(clazz, property, id)
+                - Math.max(offset, 0);
+        if (remain <= 0) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        int size = (int) Math.min(length, remain);
+        BlobInputStream in = openBlobInput(clazz, property, id,
+                Math.min(size, BLOB_CHUNK_SIZE));
+        byte[] data = new byte[size];
+        int count = 0;
+        try {
+            in.skip(offset);
+            int n;
+            while (count < size
+                    && (n = in.read(data, count, size - count)) > 0) {
+                count += n;
+            }
+        } catch (IOException e) {
+            throw new ORMException(e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        return ByteBuffer.wrap(data, 0, count).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Append the remaining bytes of the buffer to a BLOB column value. The
+     * whole value is rewritten, see
+     * {@link #openBlobOutput(Class, String, long, boolean, int)}.
+     * 
+     * @param clazz
+     *            the mapping table class
+     * @param property
+     *            java property name of the BLOB column
+     * @param id
+     *            primary key value of the row
+     * @param data
+     *            bytes to append, the buffer position is moved to its limit.
+     */
+    public void appendBlob(Class<?> clazz, String property, long id,
+            ByteBuffer data) {
+        BlobOutputStream out = openBlobOutput(clazz, property, id, true);
+        try {
+            try {
+                writeBlob(out, data);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new ORMException(e);
+        }
+    }
+
+    private static void writeBlob(BlobOutputStream out, ByteBuffer data)
+            throws IOException {
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(),
+                    data.remaining());
+            data.position(data.limit());
+        } else {
+            byte[] temp = new byte[Math.min(data.remaining(),
+                    BLOB_CHUNK_SIZE)];
+            while (data.hasRemaining()) {
+                int n = Math.min(temp.length, data.remaining());
+                data.get(temp, 0, n);
+                out.write(temp, 0, n);
+            }
+        }
+    }
+
     private long getPkValue(Object obj) {
-        String pk = Mapping.getInstance().getPK(obj.getClass());
+        Class<?> clazz = obj.getClass();
+        String pk = Mapping.getInstance().getPK(clazz);
         long id = 0;
         Object pkValue = null;
-        Method getter = Mapping.getInstance().getGetterByColumn(pk,
-                obj.getClass());
+        @SuppressWarnings("unchecked")
+        RowBinder<Object> binder = (RowBinder<Object>) Mapping.getInstance()
+                .getBinder(clazz);
         try {
-            pkValue = getter.invoke(obj, (Object[]) null);
+            pkValue = binder.get(obj,
+                    Mapping.getInstance().getBinderColumn(pk, clazz));
             id = Long.parseLong(pkValue.toString());
         } catch (Exception e) {
             e.printStackTrace();
@@ -646,21 +1934,16 @@ public class Session {
             clz = obj.getClass();
             table = Mapping.getInstance().getTableName(clz);
             pk = Mapping.getInstance().getPK(clz);
-            List<ColumnWrap> list = Mapping.getInstance().getColumns(clz);
-            int size = list.size();
-            ColumnWrap current;
-            String propName;
+            @SuppressWarnings("unchecked")
+            RowBinder<Object> binder = (RowBinder<Object>) Mapping
+                    .getInstance().getBinder(clz);
+            String[] columns = binder.getColumns();
             String colName;
             Object colValue;
-            for (int i = 0; i < size; i++) {
-                current = list.get(i);
+            for (int i = 0; i < columns.length; i++) {
+                colName = columns[i];
                 try {
-                    propName = current.getPropertyName();
-                    colName = current.getColumnName();
-                    // Method getter = CursorUtils
-                    // .getObjGetter(colName, clz, null);
-                    Method getter = getMethod(clz, current);
-                    colValue = getter.invoke(obj, (Object[]) null);
+                    colValue = binder.get(obj, i);
                     if (colValue != null) {
                         if (pk.equals(colName)) {
                             pkValue = colValue;
@@ -679,56 +1962,6 @@ public class Session {
         Object[] getArgsArray() {
             return args.toArray(new Object[args.size()]);
         }
-
-        private Method getMethod(Class<?> clz, ColumnWrap col) throws Exception {
-            String getter = col.getGetter();
-            return clz.getDeclaredMethod(getter, (Class<?>[]) null);
-        }
-
-        long getId() {
-            long id = 0;
-            try {
-                id = Long.parseLong(pkValue.toString());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            return id;
-        }
-
-        ContentValues getContentValues() {
-            ContentValues values = new ContentValues();
-            int size = colNames.size();
-            String colName;
-            Object colValue;
-            for (int i = 0; i < size; i++) {
-                colName = colNames.get(i);
-                colValue = args.get(i);
-                putColumnValues(values, colName, colValue);
-            }
-            return values;
-        }
-
-        static void putColumnValues(ContentValues colValues, String colName,
-                Object colValue) {
-            Class<?> colClass = colValue.getClass();
-            if (int.class == colClass || Integer.class == colClass) {
-                colValues.put(colName, (Integer) colValue);
-            } else if (short.class == colClass || Short.class == colClass) {
-                colValues.put(colName, (Short) colValue);
-            } else if (long.class == colClass || Long.class == colClass) {
-                colValues.put(colName, (Long) colValue);
-            } else if (byte.class == colClass || Byte.class == colClass) {
-                colValues.put(colName, (Byte) colValue);
-            } else if (float.class == colClass || Float.class == colClass) {
-                colValues.put(colName, (Float) colValue);
-            } else if (double.class == colClass || Double.class == colClass) {
-                colValues.put(colName, (Double) colValue);
-            } else if (byte[].class == colClass || Byte[].class == colClass) {
-                colValues.put(colName, (byte[]) colValue);
-            } else if (String.class == colClass) {
-                colValues.put(colName, (String) colValue);
-            }
-        }
     }
 
     private SessionObserver observer;
@@ -769,7 +2002,13 @@ public class Session {
         }
     }
 
-    private void notifySessionListener(Class<?> clazz) {
+    /* package */void notifySessionListener(Class<?> clazz) {
+        Transaction tx = mTransaction.get();
+        if (tx != null) {
+            // deferred until commit
+            tx.changed.add(clazz);
+            return;
+        }
         if (listeners != null) {
             synchronized (listeners) {
                 for (SessionListener l : listeners) {
@@ -779,7 +2018,33 @@ public class Session {
         }
     }
 
+    private static class Transaction {
+        int depth;
+        // current level marked successful
+        boolean success;
+        // some level ended without success
+        boolean failed;
+        Set<Class<?>> changed = new LinkedHashSet<Class<?>>();
+    }
+
     public static interface SessionListener {
         void onChange(Class<?> clazz);
     }
+
+    /**
+     * Callback of row iteration.
+     * 
+     * @param <T>
+     *            mapped class, or Object[] for joined query.
+     */
+    public static interface RowCallback<T> {
+        /**
+         * Called for every row.
+         * 
+         * @param row
+         *            converted row
+         * @return true to continue, false to stop iteration.
+         */
+        boolean onRow(T row);
+    }
 }
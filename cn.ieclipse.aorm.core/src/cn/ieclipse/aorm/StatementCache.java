@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Bounded LRU cache of compiled statements keyed by SQL text. A statement is
+ * removed from the cache while it's in use and put back after, so a cached
+ * statement is never used by two threads at the same time.
+ * <p>
+ * Statements belong to a database connection, when the
+ * {@link android.database.sqlite.SQLiteOpenHelper SQLiteOpenHelper} returns
+ * another database or the database is closed, all the cached statements are
+ * closed and compiled again on next use.
+ * </p>
+ * 
+ * @see Session#getStatementCache()
+ * @author Jamling
+ * 
+ */
+public final class StatementCache {
+    private int maxSize;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private SQLiteDatabase db;
+    private final LinkedHashMap<String, SQLiteStatement> statements = new LinkedHashMap<String, SQLiteStatement>(
+            16, 0.75f, true);
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Execute an INSERT statement.
+     * 
+     * @return the row ID of the newly inserted row, or -1 if failed
+     */
+    long executeInsert(SQLiteDatabase db, String sql, Object[] args) {
+        SQLiteStatement stmt = acquire(db, sql);
+        try {
+            bindArgs(stmt, args);
+            return stmt.executeInsert();
+        } finally {
+            release(db, sql, stmt);
+        }
+    }
+
+    /**
+     * Execute an UPDATE or DELETE statement.
+     * 
+     * @return the number of rows affected
+     */
+    int executeUpdateDelete(SQLiteDatabase db, String sql, Object[] args) {
+        SQLiteStatement stmt = acquire(db, sql);
+        try {
+            bindArgs(stmt, args);
+            return stmt.executeUpdateDelete();
+        } finally {
+            release(db, sql, stmt);
+        }
+    }
+
+    /**
+     * Execute a statement returning a number in first column of first row.
+     * 
+     * @return the number
+     */
+    long simpleQueryForLong(SQLiteDatabase db, String sql, Object[] args) {
+        SQLiteStatement stmt = acquire(db, sql);
+        try {
+            bindArgs(stmt, args);
+            return stmt.simpleQueryForLong();
+        } finally {
+            release(db, sql, stmt);
+        }
+    }
+
+    private static void bindArgs(SQLiteStatement stmt, Object[] args) {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                EntityWriter.bindValue(stmt, i + 1, args[i]);
+            }
+        }
+    }
+
+    /**
+     * Take a statement out of the cache, or compile a new one. The caller
+     * owns the statement until {@link #release(SQLiteDatabase, String,
+     * SQLiteStatement)}.
+     * 
+     * @param db
+     *            database the statement belongs to
+     * @param sql
+     *            SQL text
+     * @return compiled statement
+     */
+    synchronized SQLiteStatement acquire(SQLiteDatabase db, String sql) {
+        if (this.db != db || !db.isOpen()) {
+            clear();
+            this.db = db;
+        }
+        SQLiteStatement stmt = statements.remove(sql);
+        if (stmt == null) {
+            misses++;
+            stmt = db.compileStatement(sql);
+        } else {
+            hits++;
+        }
+        return stmt;
+    }
+
+    /**
+     * Put the statement back as the most recently used one, it's closed if
+     * the cache is disabled or the database changed.
+     * 
+     * @param db
+     *            database the statement belongs to
+     * @param sql
+     *            SQL text
+     * @param stmt
+     *            statement got by
+     *            {@link #acquire(SQLiteDatabase, String)}
+     */
+    synchronized void release(SQLiteDatabase db, String sql,
+            SQLiteStatement stmt) {
+        stmt.clearBindings();
+        if (maxSize <= 0 || this.db != db) {
+            stmt.close();
+            return;
+        }
+        // another thread compiled the same SQL meanwhile
+        SQLiteStatement old = statements.put(sql, stmt);
+        if (old != null && old != stmt) {
+            old.close();
+        }
+        trim(maxSize);
+    }
+
+    private void trim(int size) {
+        Iterator<Map.Entry<String, SQLiteStatement>> it = statements
+                .entrySet().iterator();
+        while (statements.size() > size && it.hasNext()) {
+            it.next().getValue().close();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Set the max number of cached statements.
+     * 
+     * @param size
+     *            max cached statements, 0 to disable the cache.
+     */
+    public synchronized void setMaxSize(int size) {
+        this.maxSize = size;
+        trim(Math.max(size, 0));
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Get how many times a cached statement reused.
+     * 
+     * @return hit count
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get how many times a statement compiled.
+     * 
+     * @return miss count
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get how many statements closed because the cache is full.
+     * 
+     * @return eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Close all cached statements, the counters are kept.
+     */
+    public synchronized void clear() {
+        for (SQLiteStatement stmt : statements.values()) {
+            stmt.close();
+        }
+        statements.clear();
+        db = null;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import android.database.Cursor;
+import android.util.Base64;
+
+/**
+ * Stream the result of a {@link Criteria} query to a CSV or JSON lines file.
+ * The cursor is read row by row and the values are UTF-8 encoded straight
+ * into a reusable direct buffer, which is written to the channel whenever it
+ * is full, so the memory used is bounded by the buffer and the cursor window,
+ * not by the size of the result.
+ * <p>
+ * The CSV header and JSON keys are the cursor column names, the
+ * <code>alias.</code> prefix is removed for a single table query so the file
+ * can be read back by {@link TableImporter}.
+ * </p>
+ * 
+ * <pre>
+ * TableExporter exporter = new TableExporter(session);
+ * exporter.export(criteria, channel, DataFormat.CSV);
+ * long rate = (long) exporter.getRowsPerSecond();
+ * </pre>
+ * 
+ * @see Session#export(Criteria, WritableByteChannel, String)
+ * @see DataFormat
+ * @author Jamling
+ * 
+ */
+public class TableExporter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private final Session session;
+    private int bufferSize = 64 * 1024;
+    private ByteBuffer buffer;
+    private WritableByteChannel out;
+
+    private long rowCount;
+    private long byteCount;
+    private long elapsedTime;
+
+    /**
+     * Create an exporter.
+     * 
+     * @param session
+     *            session to query
+     */
+    public TableExporter(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Set write buffer size in bytes, default 64K.
+     * 
+     * @param size
+     *            buffer size
+     */
+    public void setBufferSize(int size) {
+        if (size < 16) {
+            throw new IllegalArgumentException("size must >= 16");
+        }
+        if (size != bufferSize) {
+            this.bufferSize = size;
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Export all rows of the criteria query, the channel is not closed.
+     * 
+     * @param criteria
+     *            the criteria query instance.
+     * @param out
+     *            output channel
+     * @param format
+     *            {@link DataFormat#CSV} or {@link DataFormat#JSON_LINES}
+     * @return the number of rows exported
+     * @throws IOException
+     *             if failed to write
+     */
+    public long export(Criteria criteria, WritableByteChannel out,
+            String format) throws IOException {
+        DataFormat.check(format);
+        rowCount = 0;
+        byteCount = 0;
+        long start = System.nanoTime();
+        Cursor c = session.query(criteria);
+        if (c == null) {
+            return 0;
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        this.out = out;
+        try {
+            String[] names = getNames(c,
+                    criteria.getProjectionClass().length == 1);
+            if (DataFormat.CSV.equals(format)) {
+                exportCsv(c, names);
+            } else {
+                exportJson(c, names);
+            }
+            flush();
+        } finally {
+            c.close();
+            this.out = null;
+            elapsedTime = System.nanoTime() - start;
+        }
+        return rowCount;
+    }
+
+    private static String[] getNames(Cursor c, boolean single) {
+        String[] names = c.getColumnNames();
+        if (single) {
+            names = names.clone();
+            for (int i = 0; i < names.length; i++) {
+                int pos = names[i].indexOf('.');
+                if (pos > 0) {
+                    names[i] = names[i].substring(pos + 1);
+                }
+            }
+        }
+        return names;
+    }
+
+    private void exportCsv(Cursor c, String[] names) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                put((byte) ',');
+            }
+            putCsv(names[i]);
+        }
+        put((byte) '\r');
+        put((byte) '\n');
+        while (c.moveToNext()) {
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    put((byte) ',');
+                }
+                switch (c.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    putAscii(Long.toString(c.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    putAscii(Double.toString(c.getDouble(i)));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    putBase64(c.getBlob(i));
+                    break;
+                default:
+                    putCsv(c.getString(i));
+                    break;
+                }
+            }
+            put((byte) '\r');
+            put((byte) '\n');
+            rowCount++;
+        }
+    }
+
+    private void exportJson(Cursor c, String[] names) throws IOException {
+        while (c.moveToNext()) {
+            put((byte) '{');
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    put((byte) ',');
+                }
+                putJson(names[i]);
+                put((byte) ':');
+                switch (c.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    putAscii("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    putAscii(Long.toString(c.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    double d = c.getDouble(i);
+                    // NaN and Infinity are not valid JSON
+                    putAscii(Double.isNaN(d) || Double.isInfinite(d) ? "null"
+                            : Double.toString(d));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    put((byte) '"');
+                    putBase64(c.getBlob(i));
+                    put((byte) '"');
+                    break;
+                default:
+                    putJson(c.getString(i));
+                    break;
+                }
+            }
+            put((byte) '}');
+            put((byte) '\n');
+            rowCount++;
+        }
+    }
+
+    // quote the field if needed, empty string is quoted to differ from NULL
+    private void putCsv(String s) throws IOException {
+        boolean quote = s.length() == 0;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char ch = s.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\r' || ch == '\n';
+        }
+        if (!quote) {
+            putText(s);
+            return;
+        }
+        put((byte) '"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '"') {
+                putText(s.substring(start, i + 1));
+                start = i;
+            }
+        }
+        putText(s.substring(start));
+        put((byte) '"');
+    }
+
+    private void putJson(String s) throws IOException {
+        put((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+            case '"':
+            case '\\':
+                put((byte) '\\');
+                put((byte) ch);
+                break;
+            case '\n':
+                put((byte) '\\');
+                put((byte) 'n');
+                break;
+            case '\r':
+                put((byte) '\\');
+                put((byte) 'r');
+                break;
+            case '\t':
+                put((byte) '\\');
+                put((byte) 't');
+                break;
+            default:
+                if (ch < 0x20) {
+                    putAscii("\\u00");
+                    put(HEX[ch >> 4]);
+                    put(HEX[ch & 0xf]);
+                } else {
+                    i = putChar(s, i);
+                }
+                break;
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void putBase64(byte[] data) throws IOException {
+        if (data != null) {
+            putAscii(Base64.encodeToString(data, Base64.NO_WRAP));
+        }
+    }
+
+    private void putAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void putText(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            i = putChar(s, i);
+        }
+    }
+
+    // UTF-8 encode the char at i, return index of the last char consumed
+    private int putChar(String s, int i) throws IOException {
+        char ch = s.charAt(i);
+        if (ch < 0x80) {
+            put((byte) ch);
+        } else if (ch < 0x800) {
+            put((byte) (0xc0 | (ch >> 6)));
+            put((byte) (0x80 | (ch & 0x3f)));
+        } else if (Character.isHighSurrogate(ch) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(ch, s.charAt(i + 1));
+            put((byte) (0xf0 | (cp >> 18)));
+            put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+            put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+            put((byte) (0x80 | (cp & 0x3f)));
+            return i + 1;
+        } else if (Character.isHighSurrogate(ch)
+                || Character.isLowSurrogate(ch)) {
+            // unpaired surrogate
+            put((byte) '?');
+        } else {
+            put((byte) (0xe0 | (ch >> 12)));
+            put((byte) (0x80 | ((ch >> 6) & 0x3f)));
+            put((byte) (0x80 | (ch & 0x3f)));
+        }
+        return i;
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            byteCount += out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Get the number of rows exported by last export.
+     * 
+     * @return row count
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of bytes written by last export.
+     * 
+     * @return byte count
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Get time cost of last export.
+     * 
+     * @return nanoseconds
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Get throughput of last export.
+     * 
+     * @return rows per second
+     */
+    public double getRowsPerSecond() {
+        return elapsedTime <= 0 ? 0 : rowCount * 1000000000.0 / elapsedTime;
+    }
+
+    /**
+     * Get throughput of last export.
+     * 
+     * @return bytes per second
+     */
+    public double getBytesPerSecond() {
+        return elapsedTime <= 0 ? 0 : byteCount * 1000000000.0 / elapsedTime;
+    }
+}
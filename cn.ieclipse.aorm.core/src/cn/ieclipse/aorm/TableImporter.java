@@ -0,0 +1,763 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Base64;
+import cn.ieclipse.aorm.annotation.ColumnWrap;
+
+/**
+ * Stream a CSV or JSON lines file into the table of a mapped class. The file
+ * is read through a buffered NIO channel reader, the fields are mapped to
+ * columns by the table mapping and bound to compiled statements directly, no
+ * entity object created. The rows are written in chunked transactions, a
+ * failed row rolls back its chunk only.
+ * 
+ * <pre>
+ * TableImporter importer = new TableImporter(session, City.class);
+ * importer.setProgressListener(listener);
+ * long rows = importer.importFrom(channel, DataFormat.CSV);
+ * </pre>
+ * 
+ * @see DataFormat
+ * @author Jamling
+ * 
+ */
+public class TableImporter {
+    // column name or property name not mapped
+    private static final int NOT_MAPPED = -1;
+
+    private final Session session;
+    private final Class<?> clazz;
+    private final String table;
+    private final String[] columns;
+    private final int[] types;
+    // field name to column index, resolved once
+    private final HashMap<String, Integer> names = new HashMap<String, Integer>();
+
+    private int chunkSize = 5000;
+    private int bufferSize = 64 * 1024;
+    private Charset charset = Charset.forName("UTF-8");
+    private boolean replace;
+    private ProgressListener listener;
+
+    private long rowCount;
+    private long byteCount;
+    private long startTime;
+    private long elapsedTime;
+
+    /**
+     * Create an importer.
+     * 
+     * @param session
+     *            session to write
+     * @param clazz
+     *            mapped class of the table
+     */
+    public TableImporter(Session session, Class<?> clazz) {
+        this.session = session;
+        this.clazz = clazz;
+        Mapping mapping = Mapping.getInstance();
+        this.table = mapping.getTableName(clazz);
+        this.columns = mapping.getBinder(clazz).getColumns();
+        this.types = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            ColumnWrap wrap = mapping.getColumnWrapByColumn(columns[i], clazz);
+            types[i] = wrap == null ? Cursor.FIELD_TYPE_STRING : wrap
+                    .getStorageType();
+        }
+    }
+
+    /**
+     * Set rows written per transaction, default 5000.
+     * 
+     * @param rows
+     *            rows per transaction
+     */
+    public void setChunkSize(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("rows must > 0");
+        }
+        this.chunkSize = rows;
+    }
+
+    /**
+     * Set read buffer size in bytes, default 64K.
+     * 
+     * @param size
+     *            buffer size
+     */
+    public void setBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must > 0");
+        }
+        this.bufferSize = size;
+    }
+
+    /**
+     * Set the file charset, default UTF-8.
+     * 
+     * @param charset
+     *            file charset
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Set whether replace the existing rows with same primary key or unique
+     * columns, by <code>INSERT OR REPLACE</code>. Default false, a conflict
+     * fails the import.
+     * 
+     * @param replace
+     *            replace flag
+     */
+    public void setReplace(boolean replace) {
+        this.replace = replace;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Import all records of the channel, the channel is not closed.
+     * 
+     * @param in
+     *            input channel
+     * @param format
+     *            {@link DataFormat#CSV} or {@link DataFormat#JSON_LINES}
+     * @return the number of rows imported
+     * @throws IOException
+     *             if failed to read
+     * @throws ORMException
+     *             if a record is invalid or failed to write, the rows of
+     *             previous chunks are kept.
+     */
+    public long importFrom(ReadableByteChannel in, String format)
+            throws IOException {
+        DataFormat.check(format);
+        rowCount = 0;
+        byteCount = 0;
+        startTime = System.nanoTime();
+        CountingChannel counting = new CountingChannel(in);
+        Source source = new Source(Channels.newReader(counting,
+                charset.newDecoder(), bufferSize), bufferSize);
+        try {
+            if (DataFormat.CSV.equals(format)) {
+                importCsv(source, counting);
+            } else {
+                importJson(source, counting);
+            }
+        } finally {
+            elapsedTime = System.nanoTime() - startTime;
+            byteCount = counting.count;
+            Aorm.logv("import " + table + " " + rowCount + " rows in "
+                    + (elapsedTime / 1000000) + "ms");
+            // the committed chunks are kept even if failed
+            if (rowCount > 0) {
+                session.notifySessionListener(clazz);
+            }
+        }
+        return rowCount;
+    }
+
+    private void importCsv(Source source, CountingChannel counting)
+            throws IOException {
+        List<String> fields = new ArrayList<String>();
+        do {
+            if (!source.readCsv(fields)) {
+                return;
+            }
+        } while (fields.isEmpty());
+        int[] header = new int[fields.size()];
+        boolean[] present = new boolean[columns.length];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = resolve(fields.get(i));
+            if (header[i] >= 0) {
+                present[header[i]] = true;
+            }
+        }
+        String sql = buildSql(present);
+        if (sql == null) {
+            throw new ORMException("No mapped column in CSV header "
+                    + fields + " of " + clazz.getName());
+        }
+        String[] values = new String[columns.length];
+        Batch batch = new Batch(counting);
+        try {
+            while (source.readCsv(fields)) {
+                if (fields.isEmpty()) {
+                    if (header.length != 1) {
+                        continue;
+                    }
+                    // a NULL value of single column
+                    fields.add(null);
+                }
+                if (fields.size() != header.length) {
+                    throw new ORMException("Line " + source.line
+                            + ": expected " + header.length + " fields, got "
+                            + fields.size());
+                }
+                for (int i = 0; i < header.length; i++) {
+                    if (header[i] >= 0) {
+                        values[header[i]] = fields.get(i);
+                    }
+                }
+                batch.insert(sql, present, values, source.line);
+            }
+            batch.finish();
+        } finally {
+            batch.close();
+        }
+    }
+
+    private void importJson(Source source, CountingChannel counting)
+            throws IOException {
+        StringBuilder line = new StringBuilder();
+        String[] values = new String[columns.length];
+        boolean[] present = new boolean[columns.length];
+        boolean[] last = new boolean[columns.length];
+        String sql = null;
+        JsonParser parser = new JsonParser();
+        Batch batch = new Batch(counting);
+        try {
+            while (source.readLine(line)) {
+                if (line.toString().trim().length() == 0) {
+                    continue;
+                }
+                for (int i = 0; i < present.length; i++) {
+                    present[i] = false;
+                }
+                parser.parse(line, source.line, this, present, values);
+                // the keys of lines are same mostly, reuse the SQL
+                if (sql == null || !Arrays.equals(present, last)) {
+                    sql = buildSql(present);
+                    if (sql == null) {
+                        throw new ORMException("Line " + source.line
+                                + ": no mapped key of " + clazz.getName());
+                    }
+                    System.arraycopy(present, 0, last, 0, present.length);
+                }
+                batch.insert(sql, present, values, source.line);
+            }
+            batch.finish();
+        } finally {
+            batch.close();
+        }
+    }
+
+    // resolve column name or property name to column index
+    private int resolve(String name) {
+        if (name == null || name.length() == 0) {
+            return NOT_MAPPED;
+        }
+        Integer index = names.get(name);
+        if (index == null) {
+            Mapping mapping = Mapping.getInstance();
+            int i = mapping.getBinderColumn(name, clazz);
+            if (i < 0) {
+                String column = mapping.getColumnName(name, clazz);
+                if (column != null) {
+                    i = mapping.getBinderColumn(column, clazz);
+                }
+            }
+            index = i < 0 ? NOT_MAPPED : i;
+            names.put(name, index);
+        }
+        return index;
+    }
+
+    private String buildSql(boolean[] present) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(replace ? "INSERT OR REPLACE INTO " : "INSERT INTO ");
+        sb.append(table);
+        sb.append(" (");
+        int size = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (present[i]) {
+                sb.append(size++ == 0 ? "" : ",");
+                sb.append(columns[i]);
+            }
+        }
+        if (size == 0) {
+            return null;
+        }
+        sb.append(") VALUES (");
+        for (int i = 0; i < size; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    /**
+     * Get the number of rows imported by last import.
+     * 
+     * @return row count
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of bytes read by last import.
+     * 
+     * @return byte count
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Get time cost of last import.
+     * 
+     * @return nanoseconds
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Get throughput of last import.
+     * 
+     * @return rows per second
+     */
+    public double getRowsPerSecond() {
+        return rowsPerSecond(rowCount, elapsedTime);
+    }
+
+    private static double rowsPerSecond(long rows, long nanos) {
+        return nanos <= 0 ? 0 : rows * 1000000000.0 / nanos;
+    }
+
+    // bind text by column type, text not a number is bound as is
+    private static void bind(SQLiteStatement stmt, int index, int type,
+            String text) {
+        if (text == null) {
+            stmt.bindNull(index);
+            return;
+        }
+        try {
+            switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                stmt.bindLong(index, Long.parseLong(text.trim()));
+                return;
+            case Cursor.FIELD_TYPE_FLOAT:
+                stmt.bindDouble(index, Double.parseDouble(text.trim()));
+                return;
+            case Cursor.FIELD_TYPE_BLOB:
+                stmt.bindBlob(index, Base64.decode(text, Base64.DEFAULT));
+                return;
+            default:
+                break;
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException or bad Base64, let SQLite convert it
+        }
+        stmt.bindString(index, text);
+    }
+
+    /**
+     * Writes rows in chunked session transactions.
+     */
+    private class Batch {
+        private final SQLiteDatabase db;
+        private final StatementCache cache;
+        private final CountingChannel counting;
+        private int pending;
+        private boolean inTransaction;
+
+        Batch(CountingChannel counting) {
+            this.db = session.getWritableDatabase();
+            this.cache = session.getStatementCache();
+            this.counting = counting;
+        }
+
+        void insert(String sql, boolean[] present, String[] values, long line) {
+            if (!inTransaction) {
+                session.beginTransaction();
+                inTransaction = true;
+            }
+            SQLiteStatement stmt = cache.acquire(db, sql);
+            try {
+                int index = 1;
+                for (int i = 0; i < columns.length; i++) {
+                    if (present[i]) {
+                        bind(stmt, index++, types[i], values[i]);
+                    }
+                }
+                stmt.executeInsert();
+            } catch (RuntimeException e) {
+                throw new ORMException("Line " + line + ": " + e.getMessage(),
+                        e);
+            } finally {
+                cache.release(db, sql, stmt);
+            }
+            if (++pending >= chunkSize) {
+                commit();
+            }
+        }
+
+        void finish() {
+            if (inTransaction) {
+                commit();
+            }
+        }
+
+        private void commit() {
+            session.setTransactionSuccessful();
+            session.endTransaction();
+            inTransaction = false;
+            rowCount += pending;
+            pending = 0;
+            if (listener != null) {
+                long nanos = System.nanoTime() - startTime;
+                listener.onProgress(rowCount, counting.count,
+                        rowsPerSecond(rowCount, nanos));
+            }
+        }
+
+        // roll back the uncommitted chunk
+        void close() {
+            if (inTransaction) {
+                inTransaction = false;
+                pending = 0;
+                session.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Buffered character source counting lines.
+     */
+    private static class Source {
+        private final Reader reader;
+        private final char[] buf;
+        private int pos;
+        private int len;
+        long line;
+
+        Source(Reader reader, int size) {
+            this.reader = reader;
+            this.buf = new char[Math.max(1024, size / 2)];
+        }
+
+        int read() throws IOException {
+            if (pos == len) {
+                len = reader.read(buf, 0, buf.length);
+                pos = 0;
+                if (len <= 0) {
+                    len = 0;
+                    return -1;
+                }
+            }
+            return buf[pos++];
+        }
+
+        // only called right after read() returned a char
+        void unread() {
+            pos--;
+        }
+
+        boolean readLine(StringBuilder sb) throws IOException {
+            sb.setLength(0);
+            int c = read();
+            if (c == -1) {
+                return false;
+            }
+            line++;
+            while (c != -1 && c != '\n') {
+                if (c != '\r') {
+                    sb.append((char) c);
+                }
+                c = read();
+            }
+            return true;
+        }
+
+        /**
+         * Read a CSV record, quoted fields may contain separators, quotes
+         * and line breaks. The fields are empty if it's a blank line.
+         */
+        boolean readCsv(List<String> fields) throws IOException {
+            fields.clear();
+            int c = read();
+            if (c == -1) {
+                return false;
+            }
+            line++;
+            if (c == '\n') {
+                return true;
+            } else if (c == '\r') {
+                if (read() != '\n' && len > 0) {
+                    unread();
+                }
+                return true;
+            }
+            StringBuilder sb = new StringBuilder();
+            boolean quoted = false;
+            boolean inQuotes = false;
+            while (true) {
+                if (c == -1) {
+                    fields.add(field(sb, quoted));
+                    return true;
+                }
+                if (inQuotes) {
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            inQuotes = false;
+                            continue;
+                        }
+                        sb.append('"');
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        sb.append((char) c);
+                    }
+                } else if (c == '"' && sb.length() == 0 && !quoted) {
+                    quoted = true;
+                    inQuotes = true;
+                } else if (c == ',') {
+                    fields.add(field(sb, quoted));
+                    sb.setLength(0);
+                    quoted = false;
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r' && read() != '\n' && len > 0) {
+                        unread();
+                    }
+                    fields.add(field(sb, quoted));
+                    return true;
+                } else {
+                    sb.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private static String field(StringBuilder sb, boolean quoted) {
+            return !quoted && sb.length() == 0 ? null : sb.toString();
+        }
+    }
+
+    /**
+     * Parser of flat JSON object, values are kept as text.
+     */
+    private static class JsonParser {
+        private CharSequence s;
+        private int pos;
+        private long line;
+        private final StringBuilder sb = new StringBuilder();
+
+        void parse(CharSequence s, long line, TableImporter importer,
+                boolean[] present, String[] values) {
+            this.s = s;
+            this.pos = 0;
+            this.line = line;
+            skipSpace();
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                return;
+            }
+            while (true) {
+                skipSpace();
+                expect('"');
+                String key = string();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                String value = value();
+                int index = importer.resolve(key);
+                if (index >= 0) {
+                    present[index] = true;
+                    values[index] = value;
+                }
+                skipSpace();
+                char c = next();
+                if (c == '}') {
+                    return;
+                } else if (c != ',') {
+                    throw error("expected , or }");
+                }
+            }
+        }
+
+        private String value() {
+            char c = peek();
+            if (c == '"') {
+                pos++;
+                return string();
+            } else if (c == '{' || c == '[') {
+                throw error("nested value not supported");
+            }
+            int start = pos;
+            while (pos < s.length()) {
+                c = s.charAt(pos);
+                if (c == ',' || c == '}' || c <= ' ') {
+                    break;
+                }
+                pos++;
+            }
+            String text = s.subSequence(start, pos).toString();
+            if ("null".equals(text)) {
+                return null;
+            } else if ("true".equals(text)) {
+                return "1";
+            } else if ("false".equals(text)) {
+                return "0";
+            } else if (text.length() == 0) {
+                throw error("value expected");
+            }
+            return text;
+        }
+
+        // after the open quote
+        private String string() {
+            sb.setLength(0);
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c == '\\') {
+                    c = next();
+                    switch (c) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > s.length()) {
+                            throw error("bad unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(s.subSequence(
+                                    pos, pos + 4).toString(), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(c);
+                        break;
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        private void skipSpace() {
+            while (pos < s.length() && s.charAt(pos) <= ' ') {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= s.length()) {
+                throw error("unexpected end");
+            }
+            return s.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("expected " + c);
+            }
+        }
+
+        private ORMException error(String msg) {
+            return new ORMException("Line " + line + ", column " + pos + ": "
+                    + msg);
+        }
+    }
+
+    /**
+     * Channel counting read bytes for progress.
+     */
+    private static class CountingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel in;
+        volatile long count;
+
+        CountingChannel(ReadableByteChannel in) {
+            this.in = in;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            int n = in.read(dst);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        public boolean isOpen() {
+            return in.isOpen();
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Progress of import, called after every chunk committed.
+     */
+    public static interface ProgressListener {
+        /**
+         * @param rows
+         *            rows imported
+         * @param bytes
+         *            bytes read
+         * @param rowsPerSecond
+         *            average throughput
+         */
+        void onProgress(long rows, long bytes, double rowsPerSecond);
+    }
+}
@@ -0,0 +1,607 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Write-behind queue in front of a {@link Session}. Mutations are queued and
+ * written on a background thread in batched transactions, every
+ * <code>interval</code> milliseconds or when <code>batchSize</code>
+ * mutations queued.
+ * <p>
+ * Mutations of the same object (same class and primary key) are coalesced:
+ * the last save wins, a delete overrides the pending save, and a save after a
+ * delete deletes the row then saves the object. Objects without primary key
+ * value are new rows and never coalesced. Saved objects are written by
+ * {@link Session#upsert(Object)} when flushed, so don't modify them after
+ * queued.
+ * </p>
+ * <p>
+ * If a batch fails, its mutations are written one by one so a bad mutation
+ * doesn't hold back the others, and the flush stops after the batch. A failed
+ * mutation is put back in front of the queue, merged with the newer mutation
+ * of the same object if any. A mutation failed {@link #MAX_ATTEMPTS} times is
+ * dropped and reported by {@link #getLastError()} and
+ * {@link #getDroppedCount()}.
+ * </p>
+ * <p>
+ * Session listeners are notified on the background thread, a listener may
+ * call {@link #flush()}, it's run in place.
+ * </p>
+ * 
+ * <pre>
+ * WriteBehindQueue queue = new WriteBehindQueue(session, 500, 200);
+ * queue.save(reading);
+ * ...
+ * queue.close(); // flush and stop
+ * </pre>
+ * 
+ * @author Jamling
+ * 
+ */
+public class WriteBehindQueue {
+    /**
+     * Max times a mutation is tried before dropped.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final Session session;
+    private final int batchSize;
+    private final ScheduledExecutorService executor;
+    private volatile Thread executorThread;
+
+    private final Object lock = new Object();
+    private LinkedHashMap<Object, Op> pending = new LinkedHashMap<Object, Op>();
+    private boolean closed;
+    private boolean flushScheduled;
+
+    // metrics, guarded by lock
+    private long queued;
+    private long coalesced;
+    private long written;
+    private long flushCount;
+    private long failureCount;
+    private long dropped;
+    private long lastFlushNanos;
+    private long maxFlushNanos;
+    private long totalFlushNanos;
+    private Throwable lastError;
+
+    /**
+     * Create a queue.
+     * 
+     * @param session
+     *            session to write
+     * @param interval
+     *            flush interval in milliseconds
+     * @param batchSize
+     *            max mutations per transaction, also a flush is started when
+     *            so many mutations queued.
+     */
+    public WriteBehindQueue(Session session, long interval, int batchSize) {
+        if (interval <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException(
+                    "interval and batchSize must > 0");
+        }
+        this.session = session;
+        this.batchSize = batchSize;
+        this.executor = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "aorm-write-behind");
+                        t.setDaemon(true);
+                        executorThread = t;
+                        return t;
+                    }
+                });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                flushPending();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue to insert or update the object.
+     * 
+     * @param obj
+     *            the object instance
+     */
+    public void save(Object obj) {
+        Object key = getKey(obj.getClass(), getPkValue(obj), obj);
+        enqueue(key, obj.getClass(), obj, null);
+    }
+
+    /**
+     * Queue to delete the object by primary key.
+     * 
+     * @param obj
+     *            the object instance
+     */
+    public void delete(Object obj) {
+        Object pkValue = getPkValue(obj);
+        if (pkValue == null) {
+            throw new ORMException("No primary key value of "
+                    + obj.getClass().getName());
+        }
+        deleteById(obj.getClass(), pkValue);
+    }
+
+    /**
+     * Queue to delete a row by primary key.
+     * 
+     * @param clazz
+     *            the object class
+     * @param id
+     *            primary key value
+     */
+    public void deleteById(Class<?> clazz, Object id) {
+        enqueue(getKey(clazz, id, null), clazz, null, id);
+    }
+
+    private void enqueue(Object key, Class<?> clazz, Object obj, Object id) {
+        boolean flush;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Queue closed");
+            }
+            queued++;
+            Op op = pending.get(key);
+            if (op == null) {
+                op = new Op(clazz);
+                pending.put(key, op);
+            } else {
+                coalesced++;
+            }
+            if (obj == null) {
+                // delete overrides pending save
+                op.obj = null;
+                op.deleteId = id;
+            } else {
+                // keep pending delete, row deleted before saved
+                op.obj = obj;
+            }
+            flush = pending.size() >= batchSize && !flushScheduled;
+            if (flush) {
+                flushScheduled = true;
+            }
+        }
+        if (flush) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    flushPending();
+                }
+            });
+        }
+    }
+
+    /**
+     * Write all queued mutations and wait.
+     * 
+     * @throws ORMException
+     *             if failed to write, the failed mutations stay queued until
+     *             tried {@link #MAX_ATTEMPTS} times.
+     */
+    public void flush() {
+        try {
+            awaitFlush(0, null);
+        } catch (TimeoutException e) {
+            // no timeout
+        }
+    }
+
+    /**
+     * Write all queued mutations and wait at most the given time.
+     * 
+     * @param timeout
+     *            max time to wait, 0 to wait until done
+     * @param unit
+     *            time unit of timeout
+     * @throws TimeoutException
+     *             if not finished in time
+     * @throws ORMException
+     *             if failed to write, the failed mutations stay queued until
+     *             tried {@link #MAX_ATTEMPTS} times.
+     */
+    public void awaitFlush(long timeout, TimeUnit unit)
+            throws TimeoutException {
+        if (Thread.currentThread() == executorThread) {
+            // called by a session listener, waiting for the task would hang
+            Throwable t = flushPending();
+            if (t != null) {
+                throw new ORMException("write-behind flush failed", t);
+            }
+            return;
+        }
+        Future<?> f = executor.submit(new Runnable() {
+            public void run() {
+                Throwable t = flushPending();
+                if (t != null) {
+                    throw new ORMException("write-behind flush failed", t);
+                }
+            }
+        });
+        try {
+            if (timeout > 0) {
+                f.get(timeout, unit);
+            } else {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ORMException(e);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof ORMException) {
+                throw (ORMException) t;
+            }
+            throw new ORMException(t);
+        }
+    }
+
+    /**
+     * Flush all queued mutations and stop the background thread. Mutations
+     * can't be queued after closed.
+     */
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // run on executor thread, return the error if any mutation failed
+    private Throwable flushPending() {
+        List<Object> failedKeys = new ArrayList<Object>();
+        List<Op> failedOps = new ArrayList<Op>();
+        Throwable lastFailure = null;
+        while (true) {
+            List<Op> batch = new ArrayList<Op>();
+            List<Object> keys = new ArrayList<Object>();
+            synchronized (lock) {
+                flushScheduled = false;
+                Iterator<Map.Entry<Object, Op>> it = pending.entrySet()
+                        .iterator();
+                while (it.hasNext() && batch.size() < batchSize) {
+                    Map.Entry<Object, Op> entry = it.next();
+                    keys.add(entry.getKey());
+                    batch.add(entry.getValue());
+                    it.remove();
+                }
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            long start = System.nanoTime();
+            Throwable error = null;
+            int count = batch.size();
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                error = e;
+                // isolate the bad mutations
+                count = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    Op op = batch.get(i);
+                    try {
+                        write(Collections.singletonList(op));
+                        count++;
+                    } catch (RuntimeException e2) {
+                        error = e2;
+                        op.attempts++;
+                        failedKeys.add(keys.get(i));
+                        failedOps.add(op);
+                    }
+                }
+            }
+            long cost = System.nanoTime() - start;
+            synchronized (lock) {
+                flushCount++;
+                lastFlushNanos = cost;
+                totalFlushNanos += cost;
+                maxFlushNanos = Math.max(maxFlushNanos, cost);
+                written += count;
+                if (error != null) {
+                    failureCount++;
+                    lastError = error;
+                }
+            }
+            if (error != null) {
+                lastFailure = error;
+                Aorm.logv("write-behind flush failed: " + error);
+            } else {
+                Aorm.logv("write-behind flushed " + count + " in "
+                        + (cost / 1000000) + "ms");
+            }
+            if (!failedOps.isEmpty()) {
+                // stop here, a newer mutation of a failed one queued
+                // meanwhile must not be written before it
+                break;
+            }
+        }
+        if (!failedOps.isEmpty()) {
+            requeue(failedKeys, failedOps);
+        }
+        return lastFailure;
+    }
+
+    // put failed ops back in front, merged with the newer ones of same key
+    private void requeue(List<Object> keys, List<Op> ops) {
+        synchronized (lock) {
+            LinkedHashMap<Object, Op> temp = new LinkedHashMap<Object, Op>();
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                Op newer = pending.get(keys.get(i));
+                if (newer != null) {
+                    // keep the failed delete, the row is deleted before saved
+                    if (newer.deleteId == null) {
+                        newer.deleteId = op.deleteId;
+                    }
+                    newer.attempts = Math.max(newer.attempts, op.attempts);
+                } else if (op.attempts >= MAX_ATTEMPTS) {
+                    dropped++;
+                    Aorm.logv("write-behind dropped " + op.clazz.getName()
+                            + " after " + op.attempts + " attempts");
+                } else {
+                    temp.put(keys.get(i), op);
+                }
+            }
+            temp.putAll(pending);
+            pending = temp;
+        }
+    }
+
+    private void write(List<Op> batch) {
+        Map<Class<?>, EntityWriter> writers = new LinkedHashMap<Class<?>, EntityWriter>();
+        SQLiteDatabase db = session.getWritableDatabase();
+        session.beginTransaction();
+        try {
+            for (Op op : batch) {
+                EntityWriter writer = writers.get(op.clazz);
+                if (writer == null) {
+                    writer = new EntityWriter(db, session.getStatementCache(),
+                            op.clazz);
+                    writers.put(op.clazz, writer);
+                }
+                if (op.deleteId != null) {
+                    writer.delete(op.deleteId);
+                }
+                if (op.obj != null) {
+                    writer.upsert(op.obj);
+                }
+            }
+            session.setTransactionSuccessful();
+        } finally {
+            session.endTransaction();
+        }
+        for (Class<?> clazz : writers.keySet()) {
+            session.notifySessionListener(clazz);
+        }
+    }
+
+    private static Object getPkValue(Object obj) {
+        Mapping mapping = Mapping.getInstance();
+        Class<?> clazz = obj.getClass();
+        String pk = mapping.getPK(clazz);
+        if (pk == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        RowBinder<Object> binder = (RowBinder<Object>) mapping
+                .getBinder(clazz);
+        return binder.get(obj, mapping.getBinderColumn(pk, clazz));
+    }
+
+    // new rows are keyed by themselves
+    private static Object getKey(Class<?> clazz, Object pkValue, Object obj) {
+        if (pkValue == null
+                || (pkValue instanceof Number && ((Number) pkValue)
+                        .longValue() <= 0)) {
+            if (obj == null) {
+                throw new ORMException("No primary key value of "
+                        + clazz.getName());
+            }
+            return new Key(clazz, obj, true);
+        }
+        if (pkValue instanceof Number) {
+            pkValue = ((Number) pkValue).longValue();
+        }
+        return new Key(clazz, pkValue, false);
+    }
+
+    /**
+     * Get count of queued mutations not written yet.
+     * 
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Get count of all queued mutations, including coalesced ones.
+     * 
+     * @return queued count
+     */
+    public long getQueuedCount() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+
+    /**
+     * Get count of mutations merged into a pending one.
+     * 
+     * @return coalesced count
+     */
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalesced;
+        }
+    }
+
+    /**
+     * Get count of mutations written to database.
+     * 
+     * @return written count
+     */
+    public long getWrittenCount() {
+        synchronized (lock) {
+            return written;
+        }
+    }
+
+    /**
+     * Get count of batch transactions, including failed ones.
+     * 
+     * @return flush count
+     */
+    public long getFlushCount() {
+        synchronized (lock) {
+            return flushCount;
+        }
+    }
+
+    /**
+     * Get count of mutations dropped after {@link #MAX_ATTEMPTS} failures.
+     * 
+     * @return dropped count
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    public long getFailureCount() {
+        synchronized (lock) {
+            return failureCount;
+        }
+    }
+
+    /**
+     * Get latency of last batch transaction.
+     * 
+     * @return nanoseconds
+     */
+    public long getLastFlushLatency() {
+        synchronized (lock) {
+            return lastFlushNanos;
+        }
+    }
+
+    /**
+     * Get max latency of batch transactions.
+     * 
+     * @return nanoseconds
+     */
+    public long getMaxFlushLatency() {
+        synchronized (lock) {
+            return maxFlushNanos;
+        }
+    }
+
+    /**
+     * Get average latency of batch transactions.
+     * 
+     * @return nanoseconds
+     */
+    public long getAverageFlushLatency() {
+        synchronized (lock) {
+            return flushCount == 0 ? 0 : totalFlushNanos / flushCount;
+        }
+    }
+
+    /**
+     * Get the error of last failed flush.
+     * 
+     * @return error or null
+     */
+    public Throwable getLastError() {
+        synchronized (lock) {
+            return lastError;
+        }
+    }
+
+    private static class Op {
+        final Class<?> clazz;
+        Object obj;
+        Object deleteId;
+        int attempts;
+
+        Op(Class<?> clazz) {
+            this.clazz = clazz;
+        }
+    }
+
+    private static class Key {
+        private final Class<?> clazz;
+        private final Object id;
+        // id is the new object itself
+        private final boolean identity;
+
+        Key(Class<?> clazz, Object id, boolean identity) {
+            this.clazz = clazz;
+            this.id = id;
+            this.identity = identity;
+        }
+
+        @Override
+        public int hashCode() {
+            return clazz.hashCode() * 31 + (identity ? System
+                    .identityHashCode(id) : id.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (clazz != other.clazz || identity != other.identity) {
+                return false;
+            }
+            return identity ? id == other.id : id.equals(other.id);
+        }
+    }
+}
@@ -46,4 +46,16 @@ public @interface Column {
 
     public boolean id() default false;
 
+    /**
+     * Lazy column is not in default query projections, e.g. large TEXT/BLOB
+     * column. Load it with {@link cn.ieclipse.aorm.Session#loadLazy(Object)
+     * Session.loadLazy()} when needed. The property of lazy column should be
+     * an object type, so the value is null before loaded and not written by
+     * update. A table with lazy columns can't use
+     * {@link Table#replace() INSERT OR REPLACE}.
+     * 
+     * @return whether the column is lazy
+     */
+    public boolean lazy() default false;
+
 }
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm.annotation;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Type specialized accessor of a mapped column, resolved once per
+ * {@link ColumnWrap}. Primitive columns are read into the field with
+ * <code>Field.setInt()</code> etc. directly and bound to statements with
+ * <code>Field.getInt()</code> etc., so no boxing when mapping cursor rows or
+ * writing objects, their getter and setter are not called. Other columns use
+ * the getter and setter, or the field if not found.
+ *
+ * @author Jamling
+ *
+ */
+abstract class ColumnAccessor {
+    static final int TYPE_OTHER = 0;
+    static final int TYPE_INT = 1;
+    static final int TYPE_SHORT = 2;
+    static final int TYPE_LONG = 3;
+    static final int TYPE_FLOAT = 4;
+    static final int TYPE_DOUBLE = 5;
+    static final int TYPE_STRING = 6;
+    static final int TYPE_BLOB = 7;
+
+    final Field field;
+    final Method getter;
+    final Method setter;
+
+    ColumnAccessor(Field field, Method getter, Method setter) {
+        this.field = field;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    abstract void read(Object obj, Cursor c, int index) throws Exception;
+
+    /**
+     * Whether the column is a primitive number, so its value is never null.
+     */
+    boolean isPrimitive() {
+        return false;
+    }
+
+    /**
+     * Bind the column value of the object to statement, null is bound as
+     * NULL.
+     */
+    abstract void bind(Object obj, SQLiteStatement stmt, int index)
+            throws Exception;
+
+    Object get(Object obj) throws Exception {
+        if (getter != null) {
+            return getter.invoke(obj, (Object[]) null);
+        }
+        return field.get(obj);
+    }
+
+    void set(Object obj, Object value) throws Exception {
+        if (setter != null) {
+            setter.invoke(obj, value);
+        } else {
+            field.set(obj, value);
+        }
+    }
+
+    static int getType(Class<?> type) {
+        if (type == int.class || type == Integer.class) {
+            return TYPE_INT;
+        } else if (type == short.class || type == Short.class) {
+            return TYPE_SHORT;
+        } else if (type == long.class || type == Long.class) {
+            return TYPE_LONG;
+        } else if (type == float.class || type == Float.class) {
+            return TYPE_FLOAT;
+        } else if (type == double.class || type == Double.class) {
+            return TYPE_DOUBLE;
+        } else if (type == String.class) {
+            return TYPE_STRING;
+        } else if (type == byte[].class) {
+            return TYPE_BLOB;
+        }
+        return TYPE_OTHER;
+    }
+
+    // SQLite storage class of the property type
+    static int getStorageType(Class<?> type) {
+        switch (getType(type)) {
+        case TYPE_INT:
+        case TYPE_SHORT:
+        case TYPE_LONG:
+            return Cursor.FIELD_TYPE_INTEGER;
+        case TYPE_FLOAT:
+        case TYPE_DOUBLE:
+            return Cursor.FIELD_TYPE_FLOAT;
+        case TYPE_BLOB:
+            return Cursor.FIELD_TYPE_BLOB;
+        default:
+            return Cursor.FIELD_TYPE_STRING;
+        }
+    }
+
+    static ColumnAccessor create(Field field, Method getter, Method setter) {
+        Class<?> type = field.getType();
+        if (type.isPrimitive() || getter == null || setter == null) {
+            try {
+                field.setAccessible(true);
+            } catch (SecurityException e) {
+                // use accessor methods only
+            }
+        }
+        if (type == int.class) {
+            return new IntAccessor(field, getter, setter);
+        } else if (type == long.class) {
+            return new LongAccessor(field, getter, setter);
+        } else if (type == short.class) {
+            return new ShortAccessor(field, getter, setter);
+        } else if (type == float.class) {
+            return new FloatAccessor(field, getter, setter);
+        } else if (type == double.class) {
+            return new DoubleAccessor(field, getter, setter);
+        }
+        return new ObjectAccessor(field, getter, setter, getType(type));
+    }
+
+    private static class IntAccessor extends ColumnAccessor {
+        IntAccessor(Field field, Method getter, Method setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        void read(Object obj, Cursor c, int index) throws Exception {
+            field.setInt(obj, c.getInt(index));
+        }
+
+        @Override
+        boolean isPrimitive() {
+            return true;
+        }
+
+        @Override
+        void bind(Object obj, SQLiteStatement stmt, int index)
+                throws Exception {
+            stmt.bindLong(index, field.getInt(obj));
+        }
+    }
+
+    private static class LongAccessor extends ColumnAccessor {
+        LongAccessor(Field field, Method getter, Method setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        void read(Object obj, Cursor c, int index) throws Exception {
+            field.setLong(obj, c.getLong(index));
+        }
+
+        @Override
+        boolean isPrimitive() {
+            return true;
+        }
+
+        @Override
+        void bind(Object obj, SQLiteStatement stmt, int index)
+                throws Exception {
+            stmt.bindLong(index, field.getLong(obj));
+        }
+    }
+
+    private static class ShortAccessor extends ColumnAccessor {
+        ShortAccessor(Field field, Method getter, Method setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        void read(Object obj, Cursor c, int index) throws Exception {
+            field.setShort(obj, c.getShort(index));
+        }
+
+        @Override
+        boolean isPrimitive() {
+            return true;
+        }
+
+        @Override
+        void bind(Object obj, SQLiteStatement stmt, int index)
+                throws Exception {
+            stmt.bindLong(index, field.getShort(obj));
+        }
+    }
+
+    private static class FloatAccessor extends ColumnAccessor {
+        FloatAccessor(Field field, Method getter, Method setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        void read(Object obj, Cursor c, int index) throws Exception {
+            field.setFloat(obj, c.getFloat(index));
+        }
+
+        @Override
+        boolean isPrimitive() {
+            return true;
+        }
+
+        @Override
+        void bind(Object obj, SQLiteStatement stmt, int index)
+                throws Exception {
+            stmt.bindDouble(index, field.getFloat(obj));
+        }
+    }
+
+    private static class DoubleAccessor extends ColumnAccessor {
+        DoubleAccessor(Field field, Method getter, Method setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        void read(Object obj, Cursor c, int index) throws Exception {
+            field.setDouble(obj, c.getDouble(index));
+        }
+
+        @Override
+        boolean isPrimitive() {
+            return true;
+        }
+
+        @Override
+        void bind(Object obj, SQLiteStatement stmt, int index)
+                throws Exception {
+            stmt.bindDouble(index, field.getDouble(obj));
+        }
+    }
+
+    private static class ObjectAccessor extends ColumnAccessor {
+        private final int type;
+
+        ObjectAccessor(Field field, Method getter, Method setter, int type) {
+            super(field, getter, setter);
+            this.type = type;
+        }
+
+        @Override
+        void read(Object obj, Cursor c, int index) throws Exception {
+            Object value;
+            switch (type) {
+            case TYPE_INT:
+                value = c.getInt(index);
+                break;
+            case TYPE_SHORT:
+                value = c.getShort(index);
+                break;
+            case TYPE_LONG:
+                value = c.getLong(index);
+                break;
+            case TYPE_FLOAT:
+                value = c.getFloat(index);
+                break;
+            case TYPE_DOUBLE:
+                value = c.getDouble(index);
+                break;
+            case TYPE_STRING:
+                value = c.getString(index);
+                break;
+            case TYPE_BLOB:
+                value = c.getBlob(index);
+                break;
+            default:
+                // unsupported type, keep default value
+                return;
+            }
+            set(obj, value);
+        }
+
+        @Override
+        void bind(Object obj, SQLiteStatement stmt, int index)
+                throws Exception {
+            Object value = get(obj);
+            if (value == null) {
+                stmt.bindNull(index);
+                return;
+            }
+            switch (type) {
+            case TYPE_INT:
+            case TYPE_SHORT:
+            case TYPE_LONG:
+                stmt.bindLong(index, ((Number) value).longValue());
+                break;
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+                stmt.bindDouble(index, ((Number) value).doubleValue());
+                break;
+            case TYPE_BLOB:
+                stmt.bindBlob(index, (byte[]) value);
+                break;
+            default:
+                if (value instanceof Boolean) {
+                    stmt.bindLong(index, ((Boolean) value) ? 1 : 0);
+                } else {
+                    stmt.bindString(index, value.toString());
+                }
+                break;
+            }
+        }
+    }
+}
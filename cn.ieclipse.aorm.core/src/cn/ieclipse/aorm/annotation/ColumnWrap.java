@@ -16,6 +16,11 @@
 package cn.ieclipse.aorm.annotation;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import cn.ieclipse.aorm.ORMException;
 
 /**
  * @author Jamling
@@ -27,6 +32,7 @@ public class ColumnWrap {
     private String getter;
     private String setter;
     private Class<?> fieldType;
+    private volatile ColumnAccessor accessor;
 
     public ColumnWrap(Column column, Field field) {
         this.column = column;
@@ -82,6 +88,123 @@ public class ColumnWrap {
         return fieldType;
     }
 
+    /**
+     * Get the SQLite storage class of the property type.
+     * 
+     * @return {@link Cursor#FIELD_TYPE_INTEGER} for int, long, short and
+     *         their wrappers, {@link Cursor#FIELD_TYPE_FLOAT} for float and
+     *         double, {@link Cursor#FIELD_TYPE_BLOB} for byte[], otherwise
+     *         {@link Cursor#FIELD_TYPE_STRING}
+     */
+    public int getStorageType() {
+        return ColumnAccessor.getStorageType(fieldType);
+    }
+
+    /**
+     * Get the getter method, resolved once.
+     * 
+     * @return getter method or null if not exists
+     */
+    public Method getGetterMethod() {
+        return getAccessor().getter;
+    }
+
+    /**
+     * Get the setter method, resolved once.
+     * 
+     * @return setter method or null if not exists
+     */
+    public Method getSetterMethod() {
+        return getAccessor().setter;
+    }
+
+    /**
+     * Read the column value from cursor and set it to the object.
+     * 
+     * @param obj
+     *            the object to fill
+     * @param c
+     *            cursor positioned on the row
+     * @param index
+     *            column index in cursor
+     */
+    public void read(Object obj, Cursor c, int index) {
+        try {
+            getAccessor().read(obj, c, index);
+        } catch (Exception e) {
+            throw new ORMException(e);
+        }
+    }
+
+    /**
+     * Get the property value of the object.
+     * 
+     * @param obj
+     *            the object instance
+     * @return property value
+     */
+    public Object get(Object obj) {
+        try {
+            return getAccessor().get(obj);
+        } catch (Exception e) {
+            throw new ORMException(e);
+        }
+    }
+
+    /**
+     * Whether the property is a primitive number (int, long, short, float or
+     * double), so its value is never null.
+     * 
+     * @return true if primitive number
+     */
+    public boolean isPrimitive() {
+        return getAccessor().isPrimitive();
+    }
+
+    /**
+     * Bind the property value of the object to statement. A primitive
+     * property is bound from the field without boxing, others with the getter
+     * if exists.
+     * 
+     * @param obj
+     *            the object instance
+     * @param stmt
+     *            compiled statement
+     * @param index
+     *            1 based bind index
+     * @throws ORMException
+     *             if failed to get the value
+     */
+    public void bind(Object obj, SQLiteStatement stmt, int index) {
+        try {
+            getAccessor().bind(obj, stmt, index);
+        } catch (Exception e) {
+            throw new ORMException(e);
+        }
+    }
+
+    private ColumnAccessor getAccessor() {
+        ColumnAccessor a = accessor;
+        if (a == null) {
+            Class<?> clazz = field.getDeclaringClass();
+            a = ColumnAccessor.create(field, findMethod(clazz, getter),
+                    findMethod(clazz, setter, fieldType));
+            accessor = a;
+        }
+        return a;
+    }
+
+    private static Method findMethod(Class<?> clazz, String name,
+            Class<?>... types) {
+        try {
+            return clazz.getDeclaredMethod(name, types);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
     @Override
     public String toString() {
         return "Column(" + column.name() + ")";
@@ -32,4 +32,20 @@ import java.lang.annotation.Target;
 @Inherited
 public @interface Table {
     public String name();
+
+    /**
+     * Upsert strategy of the table, see
+     * {@link cn.ieclipse.aorm.Session#upsert(Object) Session.upsert(Object)}.
+     * If true, upsert with <code>INSERT OR REPLACE</code>, the conflicting
+     * row is deleted and a new row inserted, so the columns not written get
+     * their default values and ON DELETE actions run. Otherwise upsert with
+     * an <code>UPDATE</code> by primary key followed by an
+     * <code>INSERT</code> only when no row updated.
+     * <p>
+     * A table having {@link Column#lazy() lazy} columns can't be replaced,
+     * the lazy columns not loaded would be lost, upsert throws an
+     * {@link cn.ieclipse.aorm.ORMException ORMException}.
+     * </p>
+     */
+    public boolean replace() default false;
 }
@@ -18,6 +18,7 @@ package cn.ieclipse.aorm.annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import cn.ieclipse.aorm.ORMException;
@@ -32,6 +33,10 @@ public class TableWrap {
     private String pkColName;
     private String pkProName;
     private ArrayList<ColumnWrap> columns = new ArrayList<ColumnWrap>();
+    // indexes, built once in constructor
+    private HashMap<String, ColumnWrap> propertyIndex = new HashMap<String, ColumnWrap>();
+    private HashMap<String, ColumnWrap> columnIndex = new HashMap<String, ColumnWrap>();
+    private ArrayList<ColumnWrap> lazyColumns = new ArrayList<ColumnWrap>();
 
     public TableWrap(Class<? extends Object> clazz) {
         Table t = clazz.getAnnotation(Table.class);
@@ -45,9 +50,16 @@ public class TableWrap {
                         Column c = field.getAnnotation(Column.class);
                         ColumnWrap wrap = new ColumnWrap(c, field);
                         columns.add(wrap);
+                        propertyIndex.put(field.getName(), wrap);
+                        // keep the first one like linear lookup
+                        if (!columnIndex.containsKey(c.name())) {
+                            columnIndex.put(c.name(), wrap);
+                        }
                         if (c.id()) {
                             pkColName = c.name();
                             pkProName = field.getName();
+                        } else if (c.lazy()) {
+                            lazyColumns.add(wrap);
                         }
                     }
                 }
@@ -64,57 +76,21 @@ public class TableWrap {
         if (property == null) {
             throw new NullPointerException();
         }
-        String colName = null;
-        for (ColumnWrap col : columns) {
-            if (col.getPropertyName().equals(property)) {
-                colName = col.getColumnName();
-                break;
-            }
-        }
+        ColumnWrap col = propertyIndex.get(property);
         // when no assign alias to criteria, we should try to find
         // column in criteria tree. so we can't throw ORMException
         // you should check null return value manually.
-        return colName;
+        return col == null ? null : col.getColumnName();
     }
 
     public Method getGetterByColumn(String column) {
-        Method getter = null;
-        for (ColumnWrap col : columns) {
-            if (col.getColumnName().equals(column)) {
-                try {
-                    getter = clazz.getDeclaredMethod(col.getGetter(),
-                            (Class<?>[]) null);
-                } catch (SecurityException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (NoSuchMethodException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-                break;
-            }
-        }
-        return getter;
+        ColumnWrap col = columnIndex.get(column);
+        return col == null ? null : col.getGetterMethod();
     }
 
     public Method getSetterByColumn(String column) {
-        Method getter = null;
-        for (ColumnWrap col : columns) {
-            if (col.getColumnName().equals(column)) {
-                try {
-                    getter = clazz.getDeclaredMethod(col.getSetter(),
-                            col.getFieldType());
-                } catch (SecurityException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (NoSuchMethodException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-                break;
-            }
-        }
-        return getter;
+        ColumnWrap col = columnIndex.get(column);
+        return col == null ? null : col.getSetterMethod();
     }
 
     public String getPK() {
@@ -138,29 +114,36 @@ public class TableWrap {
         if (property == null) {
             throw new NullPointerException();
         }
-        ColumnWrap colName = null;
-        for (ColumnWrap col : columns) {
-            if (col.getPropertyName().equals(property)) {
-                colName = col;
-                break;
-            }
-        }
-        return colName;
+        return propertyIndex.get(property);
+    }
+
+    /**
+     * Get column wrap by column name.
+     * 
+     * @param column
+     *            column name in database
+     * @return column wrap or null if not found
+     */
+    public ColumnWrap getColumnWrapByColumn(String column) {
+        return columnIndex.get(column);
     }
 
     public List<ColumnWrap> getColumnWraps() {
         return columns;
     }
 
+    /**
+     * Get lazy columns, which are not in default projections.
+     * 
+     * @return lazy columns
+     */
+    public List<ColumnWrap> getLazyColumnWraps() {
+        return lazyColumns;
+    }
+
     public String getProperty(String column) {
-        String propName = null;
-        for (ColumnWrap col : columns) {
-            if (col.getColumnName().equals(column)) {
-                propName = col.getPropertyName();
-                break;
-            }
-        }
-        return propName;
+        ColumnWrap col = columnIndex.get(column);
+        return col == null ? null : col.getPropertyName();
     }
 
     public ArrayList<String> getColumnProjection(String alias, Class<?> clazz) {
@@ -170,11 +153,15 @@ public class TableWrap {
         if (hasAlias) {
             String preffix = alias + ".";
             for (ColumnWrap col : columns) {
-                cols.add(preffix + col.getColumnName());
+                if (!isLazy(col)) {
+                    cols.add(preffix + col.getColumnName());
+                }
             }
         } else {
             for (ColumnWrap col : columns) {
-                cols.add(col.getColumnName());
+                if (!isLazy(col)) {
+                    cols.add(col.getColumnName());
+                }
             }
         }
         return cols;
@@ -187,20 +174,32 @@ public class TableWrap {
         if (hasAlias) {
             String preffix = alias + ".";
             for (ColumnWrap col : columns) {
-                cols.add(preffix + col.getPropertyName());
+                if (!isLazy(col)) {
+                    cols.add(preffix + col.getPropertyName());
+                }
             }
         } else {
             for (ColumnWrap col : columns) {
-                cols.add(col.getPropertyName());
+                if (!isLazy(col)) {
+                    cols.add(col.getPropertyName());
+                }
             }
         }
         return cols;
     }
 
+    private static boolean isLazy(ColumnWrap col) {
+        return col.getColumn().lazy() && !col.getColumn().id();
+    }
+
     public String getTableName() {
         return table.name();
     }
 
+    public boolean isReplace() {
+        return table.replace();
+    }
+
     public Class<?> getTableClass() {
         return clazz;
     }
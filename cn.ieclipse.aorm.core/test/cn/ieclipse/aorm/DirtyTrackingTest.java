@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.ieclipse.aorm.Session.RowCallback;
+import cn.ieclipse.aorm.Session.SessionListener;
+
+/**
+ * {@link Session#update(Object)} writes the changed columns only when
+ * {@link Aorm#enableDirtyTracking(boolean) dirty tracking} is enabled.
+ * 
+ * @author Jamling
+ * 
+ */
+public class DirtyTrackingTest {
+    private TestDatabase helper;
+    private Session session;
+    private long id;
+    private List<Class<?>> changes = new ArrayList<Class<?>>();
+
+    @Before
+    public void setUp() {
+        Aorm.enableDirtyTracking(true);
+        helper = new TestDatabase();
+        session = new Session(helper);
+        id = session.insert(new Person("a", 1, 2.0));
+        session.addSessionListener(new SessionListener() {
+            public void onChange(Class<?> clazz) {
+                changes.add(clazz);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Aorm.enableDirtyTracking(false);
+        helper.close();
+    }
+
+    // change the row behind the loaded object
+    private void setAge(int age) {
+        session.getWritableDatabase().execSQL(
+                "UPDATE person SET _age = ? WHERE _id = ?",
+                new Object[] { age, id });
+    }
+
+    @Test
+    public void testChangedColumnOnly() {
+        Person p = session.get(Person.class, id);
+        p.setName("b");
+        setAge(9);
+
+        assertEquals(1, session.update(p));
+        Person q = session.get(Person.class, id);
+        assertEquals("b", q.getName());
+        // _age is not in the SET list, so not overwritten
+        assertEquals(9, q.getAge().intValue());
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void testNothingChanged() {
+        Person p = session.get(Person.class, id);
+
+        assertEquals(0, session.update(p));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testSnapshotUpdated() {
+        Person p = session.get(Person.class, id);
+        p.setName("b");
+        assertEquals(1, session.update(p));
+        // the written value is the new snapshot
+        assertEquals(0, session.update(p));
+
+        p.setName("a");
+        assertEquals(1, session.update(p));
+        assertEquals("a", session.get(Person.class, id).getName());
+    }
+
+    @Test
+    public void testChangedToNull() {
+        Person p = session.get(Person.class, id);
+        p.setScore(null);
+
+        assertEquals(1, session.update(p));
+        assertEquals(1, session.count(Criteria.create(Person.class).add(
+                Restrictions.isNull("score"))));
+        assertEquals("a", session.get(Person.class, id).getName());
+    }
+
+    @Test
+    public void testNotLoaded() {
+        Person p = new Person("b", null, null);
+        p.setId(id);
+        setAge(9);
+
+        // no snapshot, all non-null columns are written
+        assertEquals(1, session.update(p));
+        Person q = session.get(Person.class, id);
+        assertEquals("b", q.getName());
+        assertEquals(9, q.getAge().intValue());
+    }
+
+    @Test
+    public void testDisabled() {
+        Person p = session.get(Person.class, id);
+        Aorm.enableDirtyTracking(false);
+        p.setName("b");
+        setAge(9);
+
+        assertEquals(1, session.update(p));
+        // all columns written
+        assertEquals(1, session.get(Person.class, id).getAge().intValue());
+    }
+
+    @Test
+    public void testScanNotTracked() {
+        session.insert(new Person("b", 2, 3.0));
+        int size = DirtyTracker.size();
+        final Person reuse = new Person();
+        session.scan(Criteria.create(Person.class), reuse,
+                new RowCallback<Person>() {
+                    public boolean onRow(Person row) {
+                        return row.getId() != id;
+                    }
+                });
+        assertEquals(id, reuse.getId());
+        assertEquals(size, DirtyTracker.size());
+
+        // the flyweight object is written as a new object
+        reuse.setName("c");
+        setAge(9);
+        assertEquals(1, session.update(reuse));
+        assertEquals(1, session.get(Person.class, id).getAge().intValue());
+    }
+}
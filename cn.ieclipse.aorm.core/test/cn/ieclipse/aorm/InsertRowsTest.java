@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.ieclipse.aorm.Session.SessionListener;
+
+/**
+ * Multi-row VALUES insert by {@link Session#insertAllRows(java.util.Collection)}.
+ * 
+ * @author Jamling
+ * 
+ */
+public class InsertRowsTest {
+    private TestDatabase helper;
+    private Session session;
+    private List<Class<?>> changes = new ArrayList<Class<?>>();
+
+    @Before
+    public void setUp() {
+        helper = new TestDatabase();
+        session = new Session(helper);
+        session.addSessionListener(new SessionListener() {
+            public void onChange(Class<?> clazz) {
+                changes.add(clazz);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    @Test
+    public void testRowsPerStatement() {
+        // SQLITE_MAX_COMPOUND_SELECT
+        assertEquals(500, EntityWriter.rowsPerStatement(1));
+        // SQLITE_MAX_VARIABLE_NUMBER
+        assertEquals(499, EntityWriter.rowsPerStatement(2));
+        assertEquals(333, EntityWriter.rowsPerStatement(3));
+        assertEquals(1, EntityWriter.rowsPerStatement(500));
+        assertEquals(1, EntityWriter.rowsPerStatement(999));
+        assertEquals(1, EntityWriter.rowsPerStatement(1000));
+    }
+
+    private static List<Person> persons(int count) {
+        List<Person> list = new ArrayList<Person>();
+        for (int i = 0; i < count; i++) {
+            // every 10th row all null
+            list.add(i % 10 == 9 ? new Person() : new Person("p" + i, i,
+                    i / 2.0));
+        }
+        return list;
+    }
+
+    private void check(int count) {
+        assertEquals(count, helper.count("person"));
+        @SuppressWarnings("unchecked")
+        List<Person> list = session.list(Criteria.create(Person.class)
+                .addOrder(Order.asc("id")));
+        for (int i = 0; i < count; i++) {
+            Person p = list.get(i);
+            if (i % 10 == 9) {
+                assertNull(p.getName());
+            } else {
+                assertEquals("p" + i, p.getName());
+                assertEquals(i, p.getAge().intValue());
+                assertEquals(i / 2.0, p.getScore(), 0);
+            }
+        }
+        // null values are written as NULL
+        assertEquals(count / 10, session.count(Criteria.create(Person.class)
+                .add(Restrictions.isNull("age"))
+                .add(Restrictions.isNull("score"))));
+    }
+
+    @Test
+    public void testPartialLastStatement() {
+        // 3 columns: 333 + 333 + 333 + 202 rows
+        assertEquals(1201, session.insertAllRows(persons(1201)));
+        check(1201);
+        assertEquals(Arrays.<Class<?>> asList(Person.class), changes);
+    }
+
+    @Test
+    public void testFullStatements() {
+        assertEquals(666, session.insertAllRows(persons(666)));
+        check(666);
+    }
+
+    @Test
+    public void testSingleRow() {
+        assertEquals(1, session.insertAllRows(persons(1)));
+        check(1);
+    }
+}
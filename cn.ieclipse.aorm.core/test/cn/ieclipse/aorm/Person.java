@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import cn.ieclipse.aorm.annotation.Column;
+import cn.ieclipse.aorm.annotation.Table;
+
+/**
+ * Entity of the tests, all columns except primary key are nullable.
+ * 
+ * @author Jamling
+ * 
+ */
+@Table(name = "person")
+public class Person {
+    @Column(name = "_id", id = true)
+    private long id;
+
+    @Column(name = "_name")
+    private String name;
+
+    @Column(name = "_age")
+    private Integer age;
+
+    @Column(name = "_score")
+    private Double score;
+
+    public Person() {
+
+    }
+
+    public Person(String name, Integer age, Double score) {
+        this.name = name;
+        this.age = age;
+        this.score = score;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getAge() {
+        return age;
+    }
+
+    public void setAge(Integer age) {
+        this.age = age;
+    }
+
+    public Double getScore() {
+        return score;
+    }
+
+    public void setScore(Double score) {
+        this.score = score;
+    }
+}
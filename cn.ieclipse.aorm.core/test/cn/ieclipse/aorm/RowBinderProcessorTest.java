@@ -0,0 +1,311 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.database.Cursor;
+import cn.ieclipse.aorm.annotation.Table;
+
+/**
+ * Run the annotation processor of cn.ieclipse.aorm.apt on {@link Person} and
+ * compare the generated binder with {@link ReflectRowBinder}. The processor
+ * and Person are compiled from source, so the test must run in the project
+ * directory (as ant and Eclipse do) on a JDK.
+ * 
+ * @author Jamling
+ * 
+ */
+public class RowBinderProcessorTest {
+    private static final String APT_SRC = "../cn.ieclipse.aorm.apt/src/";
+    private static final String PROCESSOR = "cn.ieclipse.aorm.apt.RowBinderProcessor";
+    private static final String MEMO = "package cn.ieclipse.aorm;\n"
+            + "import cn.ieclipse.aorm.annotation.*;\n"
+            + "@Table(name = \"memo\")\n"
+            + "public class Memo {\n"
+            + "    @Column(name = \"_id\", id = true)\n"
+            + "    private long id;\n"
+            + "    @Column(name = \"_text\")\n"
+            + "    private String text;\n"
+            + "    public long getId() { return id; }\n"
+            + "    public void setId(long id) { this.id = id; }\n"
+            + "}\n";
+
+    @ClassRule
+    public static TemporaryFolder tmp = new TemporaryFolder();
+
+    private static ClassLoader loader;
+    private static List<Diagnostic<? extends JavaFileObject>> diagnostics;
+
+    private TestDatabase helper;
+    private Session session;
+    private Class<?> generated;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(javac);
+        Set<File> path = new LinkedHashSet<File>();
+        path.add(classpathOf(Table.class));
+        path.add(classpathOf(Cursor.class));
+        path.add(classpathOf(Person.class));
+        String cp = join(path);
+
+        File proc = tmp.newFolder("proc");
+        compile(javac, Arrays.asList("-d", proc.getPath(), "-cp", cp,
+                "-proc:none"), new File(APT_SRC
+                + PROCESSOR.replace('.', '/') + ".java"));
+
+        File memo = new File(tmp.newFolder("src"), "Memo.java");
+        FileWriter writer = new FileWriter(memo);
+        try {
+            writer.write(MEMO);
+        } finally {
+            writer.close();
+        }
+        File gen = tmp.newFolder("gen");
+        path.add(proc);
+        diagnostics = compile(javac, Arrays.asList("-d", gen.getPath(),
+                "-cp", cp, "-processorpath", join(path), "-processor",
+                PROCESSOR), new File("test/cn/ieclipse/aorm/Person.java"),
+                memo);
+        loader = new GeneratedLoader(gen);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        helper = new TestDatabase();
+        session = new Session(helper);
+        generated = loader.loadClass(Person.class.getName());
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    @Test
+    public void testLoadBinder() throws Exception {
+        assertTrue(generated != Person.class);
+        assertEquals(Person.class.getName() + RowBinder.SUFFIX,
+                binder(generated).getClass().getName());
+        assertTrue(binder(Person.class) instanceof ReflectRowBinder);
+    }
+
+    @Test
+    public void testSkipColumn() throws Exception {
+        Class<?> memo = loader.loadClass("cn.ieclipse.aorm.Memo");
+        RowBinder<?> binder = binder(memo);
+        assertFalse(binder instanceof ReflectRowBinder);
+        assertArrayEquals(new String[] { "_id" }, binder.getColumns());
+        boolean warned = false;
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+            if (d.getKind() == Diagnostic.Kind.WARNING
+                    && d.getMessage(null).contains("_text")) {
+                warned = true;
+            }
+        }
+        assertTrue(warned);
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        Object[][] values = { { "a", 1, 1.5 }, { null, null, null } };
+        for (Object[] v : values) {
+            Person p = new Person((String) v[0], (Integer) v[1], (Double) v[2]);
+            p.setId(3);
+            assertSame(p, newGenerated(v, 3));
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        TestDatabase.insertPersons(session, 20, 7);
+        session.insert(new Person());
+        List<?> expected = session.list(Criteria.create(Person.class)
+                .addOrder(Order.asc("id")));
+        List<?> actual = session.list(Criteria.create(generated).addOrder(
+                Order.asc("id")));
+        assertEquals(21, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(generated, actual.get(i).getClass());
+            assertSame(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void testInsert() throws Exception {
+        List<Object> reflect = new ArrayList<Object>();
+        List<Object> gen = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            Object[] v = i % 3 == 2 ? new Object[3] : new Object[] {
+                    "p" + i, i, i / 2.0 };
+            reflect.add(new Person((String) v[0], (Integer) v[1],
+                    (Double) v[2]));
+            gen.add(newGenerated(v, 0));
+        }
+        assertEquals(10, session.insertAllRows(reflect));
+        TestDatabase other = new TestDatabase();
+        try {
+            assertEquals(10, new Session(other).insertAllRows(gen));
+            assertEquals(dump(helper), dump(other));
+        } finally {
+            other.close();
+        }
+    }
+
+    private Object newGenerated(Object[] values, long id) throws Exception {
+        Object obj = generated.getConstructor(String.class, Integer.class,
+                Double.class).newInstance(values);
+        generated.getMethod("setId", long.class).invoke(obj, id);
+        return obj;
+    }
+
+    // same values of all columns, read by the reflect and generated binder
+    private void assertSame(Object expected, Object actual) {
+        RowBinder<Object> reflect = binder(Person.class);
+        RowBinder<Object> binder = binder(generated);
+        List<String> columns = Arrays.asList(binder.getColumns());
+        assertEquals(new LinkedHashSet<String>(Arrays.asList(reflect
+                .getColumns())), new LinkedHashSet<String>(columns));
+        for (int i = 0; i < reflect.getColumns().length; i++) {
+            String column = reflect.getColumns()[i];
+            assertEquals(column, reflect.get(expected, i), binder.get(actual,
+                    columns.indexOf(column)));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RowBinder<Object> binder(Class<?> clazz) {
+        return (RowBinder<Object>) Mapping.getInstance().getBinder(clazz);
+    }
+
+    private static List<String> dump(TestDatabase db) {
+        List<String> rows = new ArrayList<String>();
+        Cursor c = db.getReadableDatabase().rawQuery(
+                "SELECT * FROM person ORDER BY _id", null);
+        try {
+            while (c.moveToNext()) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < c.getColumnCount(); i++) {
+                    sb.append(c.isNull(i) ? "NULL" : c.getString(i));
+                    sb.append('|');
+                }
+                rows.add(sb.toString());
+            }
+        } finally {
+            c.close();
+        }
+        return rows;
+    }
+
+    private static List<Diagnostic<? extends JavaFileObject>> compile(
+            JavaCompiler javac, List<String> options, File... files)
+            throws IOException {
+        DiagnosticCollector<JavaFileObject> collector;
+        collector = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fm = javac.getStandardFileManager(collector,
+                null, null);
+        try {
+            boolean ok = javac.getTask(null, fm, collector, options, null,
+                    fm.getJavaFileObjects(files)).call();
+            assertTrue(collector.getDiagnostics().toString(), ok);
+        } finally {
+            fm.close();
+        }
+        return collector.getDiagnostics();
+    }
+
+    // class path entry (directory or jar) the class is loaded from
+    private static File classpathOf(Class<?> clazz) throws Exception {
+        String name = clazz.getName().replace('.', '/') + ".class";
+        String url = clazz.getClassLoader().getResource(name).toString();
+        if (url.startsWith("jar:")) {
+            url = url.substring(4, url.indexOf("!/"));
+        } else {
+            url = url.substring(0, url.length() - name.length());
+        }
+        return new File(URLDecoder.decode(new URL(url).getPath(), "UTF-8"));
+    }
+
+    private static String join(Set<File> files) {
+        StringBuilder sb = new StringBuilder();
+        for (File f : files) {
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparatorChar);
+            }
+            sb.append(f.getPath());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Load the compiled Person and its binder itself instead of the Person
+     * of the tests.
+     */
+    private static class GeneratedLoader extends URLClassLoader {
+        GeneratedLoader(File dir) throws IOException {
+            super(new URL[] { dir.toURI().toURL() }, Person.class
+                    .getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name,
+                boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(Person.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                c = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+}
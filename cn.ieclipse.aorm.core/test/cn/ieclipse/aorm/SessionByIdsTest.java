@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import cn.ieclipse.aorm.Session.SessionListener;
+
+/**
+ * {@link Session#deleteByIds(Class, long[])} and
+ * {@link Session#updateByIds(Class, long[], ContentValues)} split the IN list
+ * under the bound variables limit.
+ * 
+ * @author Jamling
+ * 
+ */
+public class SessionByIdsTest {
+    private static final int ROWS = 2500;
+
+    private TestDatabase helper;
+    private Session session;
+    private List<Integer> variables = new ArrayList<Integer>();
+    private List<Class<?>> changes = new ArrayList<Class<?>>();
+    // 1 based index of the statement to fail, 0 for none
+    private int failAt;
+
+    @Before
+    public void setUp() {
+        helper = new TestDatabase();
+        session = new Session(helper) {
+            @Override
+            protected int executeUpdateDelete(String sql, Object[] args) {
+                variables.add(args == null ? 0 : args.length);
+                if (variables.size() == failAt) {
+                    throw new SQLException();
+                }
+                return super.executeUpdateDelete(sql, args);
+            }
+        };
+        List<Person> list = new ArrayList<Person>();
+        for (int i = 0; i < ROWS; i++) {
+            list.add(new Person("p" + i, i % 10, (double) i));
+        }
+        session.insertAllRows(list);
+        session.addSessionListener(new SessionListener() {
+            public void onChange(Class<?> clazz) {
+                changes.add(clazz);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    private static long[] range(long from, int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = from + i;
+        }
+        return ids;
+    }
+
+    private void assertChunks(int statements) {
+        assertEquals(statements, variables.size());
+        for (int size : variables) {
+            assertTrue(size <= EntityWriter.MAX_VARIABLES);
+        }
+    }
+
+    @Test
+    public void testDeleteByIds() {
+        // ids 501..2500 plus 100 not existing
+        int count = session.deleteByIds(Person.class, range(501, 2100));
+
+        assertEquals(2000, count);
+        assertEquals(500, helper.count("person"));
+        assertChunks(3);
+        assertEquals(EntityWriter.MAX_VARIABLES, variables.get(0)
+                .intValue());
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void testDeleteByIdsExactChunk() {
+        int count = session.deleteByIds(Person.class,
+                range(1, EntityWriter.MAX_VARIABLES));
+
+        assertEquals(EntityWriter.MAX_VARIABLES, count);
+        assertChunks(1);
+    }
+
+    @Test
+    public void testUpdateByIds() {
+        ContentValues values = new ContentValues();
+        values.put("name", "x");
+        values.put("age", 7);
+        long[] ids = range(1, ROWS);
+        int count = session.updateByIds(Person.class, ids, values);
+
+        assertEquals(ROWS, count);
+        // 2 SET values leave 997 variables for ids
+        assertChunks(3);
+        assertEquals(EntityWriter.MAX_VARIABLES, variables.get(0)
+                .intValue());
+        assertEquals(1, changes.size());
+
+        Person p = session.get(Person.class, ROWS);
+        assertEquals("x", p.getName());
+        assertEquals(7, p.getAge().intValue());
+        assertEquals(ROWS - 1, p.getScore().intValue());
+    }
+
+    @Test
+    public void testEmptyIds() {
+        assertEquals(0, session.deleteByIds(Person.class, new long[0]));
+        assertEquals(0, session.deleteByIds(Person.class, null));
+        assertEquals(0, variables.size());
+        assertEquals(ROWS, helper.count("person"));
+    }
+
+    @Test
+    public void testRollbackOnFailure() {
+        failAt = 3;
+        try {
+            session.deleteByIds(Person.class, range(1, ROWS));
+            fail("the last chunk should fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        // the first 2 chunks are rolled back too
+        assertEquals(ROWS, helper.count("person"));
+        assertEquals(0, changes.size());
+    }
+}
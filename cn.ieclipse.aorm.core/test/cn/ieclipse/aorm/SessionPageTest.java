@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Keyset pagination by {@link Session#page(Criteria, int, Object[])}.
+ * 
+ * @author Jamling
+ * 
+ */
+public class SessionPageTest {
+    private TestDatabase helper;
+    private Session session;
+
+    @Before
+    public void setUp() {
+        helper = new TestDatabase();
+        session = new Session(helper);
+        // 5 rows of every age, so the primary key breaks the ties
+        TestDatabase.insertPersons(session, 25, 5);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    private List<Person> pageAll(Criteria criteria, int size, int pages) {
+        List<Person> all = new ArrayList<Person>();
+        Page<Person> page = session.page(criteria, size, null);
+        all.addAll(page.getItems());
+        int count = 1;
+        while (page.hasNext()) {
+            page = session.page(criteria, size, page.getNextToken());
+            all.addAll(page.getItems());
+            count++;
+        }
+        assertEquals(pages, count);
+        return all;
+    }
+
+    @Test
+    public void testPageAscending() {
+        Criteria criteria = Criteria.create(Person.class);
+        criteria.addOrder(Order.asc("age"));
+        List<Person> all = pageAll(criteria, 10, 3);
+
+        assertEquals(25, all.size());
+        Set<Long> ids = new HashSet<Long>();
+        for (int i = 0; i < all.size(); i++) {
+            Person p = all.get(i);
+            assertTrue(ids.add(p.getId()));
+            if (i > 0) {
+                Person prev = all.get(i - 1);
+                assertTrue(prev.getAge() <= p.getAge());
+                if (prev.getAge().equals(p.getAge())) {
+                    assertTrue(prev.getId() < p.getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPageDescending() {
+        Criteria criteria = Criteria.create(Person.class);
+        criteria.addOrder(Order.desc("age"));
+        List<Person> all = pageAll(criteria, 7, 4);
+
+        assertEquals(25, all.size());
+        assertEquals(4, all.get(0).getAge().intValue());
+        assertEquals(0, all.get(24).getAge().intValue());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getAge() >= all.get(i).getAge());
+        }
+    }
+
+    @Test
+    public void testPageWithRestriction() {
+        Criteria criteria = Criteria.create(Person.class);
+        criteria.add(Restrictions.ge("age", 3));
+        criteria.addOrder(Order.asc("age"));
+        List<Person> all = pageAll(criteria, 4, 3);
+
+        assertEquals(10, all.size());
+        for (Person p : all) {
+            assertTrue(p.getAge() >= 3);
+        }
+    }
+
+    @Test
+    public void testLastFullPage() {
+        Criteria criteria = Criteria.create(Person.class);
+        criteria.addOrder(Order.asc("age"));
+        // 25 rows in pages of 5, the 6th page is empty
+        Page<Person> page = session.page(criteria, 5, null);
+        for (int i = 0; i < 4; i++) {
+            page = session.page(criteria, 5, page.getNextToken());
+        }
+        assertEquals(5, page.getItems().size());
+        assertTrue(page.hasNext());
+        page = session.page(criteria, 5, page.getNextToken());
+        assertTrue(page.getItems().isEmpty());
+        assertFalse(page.hasNext());
+    }
+
+    @Test
+    public void testCriteriaNotChanged() {
+        Criteria criteria = Criteria.create(Person.class);
+        criteria.addOrder(Order.asc("age"));
+        criteria.setLimit(0, 3);
+        Page<Person> page = session.page(criteria, 10, null);
+        session.page(criteria, 10, page.getNextToken());
+
+        assertEquals(0, criteria.getSeekSize());
+        assertNull(criteria.getSeekLastValues());
+        assertEquals(3, session.list(criteria).size());
+
+        Object[] token = page.getNextToken();
+        criteria.setSeek(2, token);
+        session.page(criteria, 10, null);
+        assertEquals(2, criteria.getSeekSize());
+        assertTrue(token == criteria.getSeekLastValues());
+        assertEquals(2, session.list(criteria).size());
+    }
+}
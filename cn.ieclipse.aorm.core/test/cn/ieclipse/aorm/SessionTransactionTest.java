@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.database.SQLException;
+import cn.ieclipse.aorm.Session.SessionListener;
+
+/**
+ * Transactions of {@link Session} and the deferred change notifications.
+ * 
+ * @author Jamling
+ * 
+ */
+public class SessionTransactionTest {
+    private TestDatabase helper;
+    private Session session;
+    private List<Class<?>> changes = new ArrayList<Class<?>>();
+
+    @Before
+    public void setUp() {
+        helper = new TestDatabase();
+        session = new Session(helper);
+        session.addSessionListener(new SessionListener() {
+            public void onChange(Class<?> clazz) {
+                changes.add(clazz);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    private Callable<Long> insert(final String name) {
+        return new Callable<Long>() {
+            public Long call() throws Exception {
+                return session.insert(new Person(name, 1, null));
+            }
+        };
+    }
+
+    @Test
+    public void testNotifyOnceAfterCommit() {
+        session.runInTransaction(new Callable<Void>() {
+            public Void call() throws Exception {
+                session.insert(new Person("a", 1, null));
+                session.runInTransaction(insert("b"));
+                session.insert(new Person("c", 1, null));
+                // deferred until the outermost transaction ends
+                assertTrue(changes.isEmpty());
+                return null;
+            }
+        });
+
+        assertEquals(3, helper.count("person"));
+        assertEquals(Arrays.<Class<?>> asList(Person.class), changes);
+    }
+
+    @Test
+    public void testNestedRollback() {
+        session.runInTransaction(new Callable<Void>() {
+            public Void call() throws Exception {
+                session.insert(new Person("a", 1, null));
+                try {
+                    session.runInTransaction(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            session.insert(new Person("b", 1, null));
+                            throw new IllegalStateException("inner");
+                        }
+                    });
+                    fail("inner should throw");
+                } catch (IllegalStateException e) {
+                    // the outer goes on, but can't commit any more
+                }
+                session.insert(new Person("c", 1, null));
+                return null;
+            }
+        });
+
+        assertEquals(0, helper.count("person"));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testCheckedException() {
+        try {
+            session.runInTransaction(new Callable<Void>() {
+                public Void call() throws Exception {
+                    session.insert(new Person("a", 1, null));
+                    throw new IOException("task");
+                }
+            });
+            fail("should throw");
+        } catch (ORMException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(0, helper.count("person"));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testNotSuccessful() {
+        session.beginTransaction();
+        try {
+            session.insert(new Person("a", 1, null));
+        } finally {
+            session.endTransaction();
+        }
+
+        assertEquals(0, helper.count("person"));
+        assertTrue(changes.isEmpty());
+        // the next transaction is not affected
+        session.runInTransaction(insert("b"));
+        assertEquals(1, helper.count("person"));
+        assertEquals(Arrays.<Class<?>> asList(Person.class), changes);
+    }
+
+    @Test
+    public void testCommitFailed() {
+        session.getWritableDatabase().execSQL("PRAGMA foreign_keys = ON");
+        session.getWritableDatabase().execSQL(
+                "CREATE TABLE child (_id INTEGER PRIMARY KEY, parent INTEGER"
+                        + " REFERENCES person(_id) DEFERRABLE INITIALLY DEFERRED)");
+        try {
+            session.runInTransaction(new Callable<Void>() {
+                public Void call() throws Exception {
+                    session.insert(new Person("a", 1, null));
+                    // checked on COMMIT
+                    session.getWritableDatabase().execSQL(
+                            "INSERT INTO child (parent) VALUES (999)");
+                    return null;
+                }
+            });
+            fail("COMMIT should fail");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        assertEquals(0, helper.count("person"));
+        assertTrue(changes.isEmpty());
+    }
+}
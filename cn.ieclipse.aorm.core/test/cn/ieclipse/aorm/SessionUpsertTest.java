@@ -0,0 +1,211 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.ieclipse.aorm.Session.SessionListener;
+import cn.ieclipse.aorm.annotation.Column;
+import cn.ieclipse.aorm.annotation.Table;
+
+/**
+ * {@link Session#upsert(Object)} with UPDATE then INSERT, and with
+ * <code>INSERT OR REPLACE</code>.
+ * 
+ * @author Jamling
+ * 
+ */
+public class SessionUpsertTest {
+    @Table(name = "tag", replace = true)
+    public static class Tag {
+        @Column(name = "_id", id = true)
+        public long id;
+        @Column(name = "_name")
+        public String name;
+    }
+
+    @Table(name = "note", replace = true)
+    public static class Note {
+        @Column(name = "_id", id = true)
+        public long id;
+        @Column(name = "_title")
+        public String title;
+        @Column(name = "_body", lazy = true)
+        public String body;
+    }
+
+    private TestDatabase helper;
+    private Session session;
+    private List<Class<?>> changes = new ArrayList<Class<?>>();
+
+    @Before
+    public void setUp() {
+        helper = new TestDatabase();
+        helper.getWritableDatabase().execSQL(
+                "CREATE TABLE tag (_id INTEGER PRIMARY KEY, _name TEXT)");
+        helper.getWritableDatabase().execSQL(
+                "CREATE TABLE note (_id INTEGER PRIMARY KEY, _title TEXT,"
+                        + " _body TEXT)");
+        session = new Session(helper);
+        session.addSessionListener(new SessionListener() {
+            public void onChange(Class<?> clazz) {
+                changes.add(clazz);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    private long insert(String name, Integer age, Double score) {
+        long id = session.insert(new Person(name, age, score));
+        changes.clear();
+        return id;
+    }
+
+    @Test
+    public void testInsertWithoutId() {
+        long id = session.upsert(new Person("a", 1, 2.0));
+
+        assertTrue(id > 0);
+        assertEquals("a", session.get(Person.class, id).getName());
+        assertEquals(Arrays.<Class<?>> asList(Person.class), changes);
+    }
+
+    @Test
+    public void testUpdateExisting() {
+        long id = insert("a", 1, 2.0);
+        Person p = new Person("b", null, null);
+        p.setId(id);
+
+        assertEquals(id, session.upsert(p));
+        assertEquals(1, helper.count("person"));
+        // null properties are not written
+        Person q = session.get(Person.class, id);
+        assertEquals("b", q.getName());
+        assertEquals(1, q.getAge().intValue());
+        assertEquals(2.0, q.getScore(), 0);
+    }
+
+    @Test
+    public void testInsertWithId() {
+        insert("a", 1, 2.0);
+        Person p = new Person("b", 3, null);
+        p.setId(100);
+
+        assertEquals(100, session.upsert(p));
+        assertEquals(2, helper.count("person"));
+        assertEquals("b", session.get(Person.class, 100).getName());
+    }
+
+    @Test
+    public void testPkOnlyExisting() {
+        long id = insert("a", 1, 2.0);
+        Person p = new Person();
+        p.setId(id);
+
+        // nothing to update, but the row exists, so no INSERT
+        assertEquals(id, session.upsert(p));
+        assertEquals(1, helper.count("person"));
+        assertEquals("a", session.get(Person.class, id).getName());
+    }
+
+    @Test
+    public void testPkOnlyNew() {
+        Person p = new Person();
+        p.setId(200);
+
+        assertEquals(200, session.upsert(p));
+        assertEquals(1, helper.count("person"));
+        assertNull(session.get(Person.class, 200).getName());
+    }
+
+    @Test
+    public void testUpsertAll() {
+        long id = insert("a", 1, 2.0);
+        Person p1 = new Person("b", null, null);
+        p1.setId(id);
+        Person p2 = new Person("c", 3, null);
+        Person p3 = new Person();
+        p3.setId(id);
+
+        long[] ids = session.upsertAll(Arrays.asList(p1, p2, p3));
+
+        assertEquals(id, ids[0]);
+        assertTrue(ids[1] > id);
+        assertEquals(id, ids[2]);
+        assertEquals(2, helper.count("person"));
+        assertEquals(Arrays.<Class<?>> asList(Person.class), changes);
+    }
+
+    @Test
+    public void testFailedUpsertRolledBack() {
+        long id = insert("a", 1, 2.0);
+        Person p = new Person("b", -1, null);
+        p.setId(id);
+        try {
+            session.upsert(p);
+            fail("CHECK (_age >= 0) should fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals("a", session.get(Person.class, id).getName());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testReplace() {
+        Tag tag = new Tag();
+        tag.id = 5;
+        tag.name = "a";
+        assertEquals(5, session.upsert(tag));
+        tag.name = "b";
+        assertEquals(5, session.upsert(tag));
+
+        assertEquals(1, helper.count("tag"));
+        assertEquals("b", session.get(Tag.class, 5).name);
+    }
+
+    @Test
+    public void testReplaceWithLazyColumns() {
+        session.getWritableDatabase().execSQL(
+                "INSERT INTO note (_id, _title, _body) VALUES (1, 't', 'b')");
+        Note note = session.get(Note.class, 1);
+        note.title = "t2";
+        try {
+            session.upsert(note);
+            fail("REPLACE would clear the lazy body");
+        } catch (ORMException e) {
+            // expected
+        }
+        assertArrayEquals(new String[] { "b" },
+                session.listStrings(Criteria.create(Note.class), "body"));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.database.Cursor;
+
+/**
+ * Export by {@link TableExporter} and import back by {@link TableImporter} in
+ * both {@link DataFormat}s.
+ * 
+ * @author Jamling
+ * 
+ */
+public class TableExportImportTest {
+    private static final String[] NAMES = { "plain", "say \"hi\"", "a,b",
+            "line1\nline2", "crlf\r\nend", "", null, " padded ",
+            "\uD83D\uDE00 emoji", "\u4E2D\u6587", "back\\slash", "tab\there",
+            "bell\u0007", "\"", "," };
+
+    private TestDatabase helper;
+    private Session session;
+
+    @Before
+    public void setUp() {
+        helper = new TestDatabase();
+        session = new Session(helper);
+        for (int i = 0; i < NAMES.length; i++) {
+            boolean nulls = i % 4 == 3;
+            session.insert(new Person(NAMES[i], nulls ? null : i * 1000,
+                    nulls ? null : i - 2.5));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    // all rows with storage classes, NULL and "" differ
+    private List<String> dump() {
+        List<String> rows = new ArrayList<String>();
+        Cursor c = session.getWritableDatabase().rawQuery(
+                "SELECT _id, _name, _age, _score FROM person ORDER BY _id",
+                null);
+        try {
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < c.getColumnCount(); i++) {
+                    sb.append(c.getType(i)).append(':');
+                    sb.append(c.isNull(i) ? "NULL" : c.getString(i));
+                    sb.append('|');
+                }
+                rows.add(sb.toString());
+            }
+        } finally {
+            c.close();
+        }
+        return rows;
+    }
+
+    private byte[] export(String format, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TableExporter exporter = new TableExporter(session);
+        exporter.setBufferSize(bufferSize);
+        assertEquals(NAMES.length, exporter.export(
+                Criteria.create(Person.class), Channels.newChannel(out),
+                format));
+        return out.toByteArray();
+    }
+
+    private long importFrom(byte[] data, String format, int bufferSize)
+            throws IOException {
+        TableImporter importer = new TableImporter(session, Person.class);
+        importer.setBufferSize(bufferSize);
+        importer.setChunkSize(4);
+        return importer.importFrom(
+                Channels.newChannel(new ByteArrayInputStream(data)), format);
+    }
+
+    private void roundTrip(String format, int bufferSize) throws IOException {
+        List<String> expected = dump();
+        byte[] data = export(format, bufferSize);
+        session.deleteAll(Person.class);
+
+        assertEquals(NAMES.length, importFrom(data, format, bufferSize));
+        assertEquals(expected, dump());
+        // and the same bytes again
+        assertEquals(new String(data, "UTF-8"),
+                new String(export(format, bufferSize), "UTF-8"));
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        roundTrip(DataFormat.CSV, 64 * 1024);
+    }
+
+    @Test
+    public void testJsonLines() throws IOException {
+        roundTrip(DataFormat.JSON_LINES, 64 * 1024);
+    }
+
+    @Test
+    public void testCsvSmallBuffer() throws IOException {
+        // records and surrogate pairs span buffers
+        roundTrip(DataFormat.CSV, 16);
+    }
+
+    @Test
+    public void testJsonLinesSmallBuffer() throws IOException {
+        roundTrip(DataFormat.JSON_LINES, 16);
+    }
+
+    @Test
+    public void testCsvNullAndEmpty() throws IOException {
+        session.deleteAll(Person.class);
+        String csv = "_id,_name,_age\r\n1,,\r\n2,\"\",5\r\n\r\n3,\"x\"\"y\",\n";
+        assertEquals(3, importFrom(csv.getBytes("UTF-8"), DataFormat.CSV, 64));
+
+        List<String> rows = dump();
+        assertEquals("1:1|0:NULL|0:NULL|0:NULL|", rows.get(0));
+        assertEquals("1:2|3:|1:5|0:NULL|", rows.get(1));
+        assertEquals("1:3|3:x\"y|0:NULL|0:NULL|", rows.get(2));
+    }
+
+    @Test
+    public void testCsvSingleColumnBlankLine() throws IOException {
+        session.deleteAll(Person.class);
+        // a blank line is a NULL of the only column
+        String csv = "name\na\n\n\"\"\n";
+        assertEquals(3, importFrom(csv.getBytes("UTF-8"), DataFormat.CSV, 64));
+
+        // AUTOINCREMENT ids go on after deleteAll, skip them
+        List<String> rows = dump();
+        assertEquals("3:a|0:NULL|0:NULL|", rows.get(0).replaceFirst(
+                "^[^|]*\\|", ""));
+        assertEquals("0:NULL|0:NULL|0:NULL|", rows.get(1).replaceFirst(
+                "^[^|]*\\|", ""));
+        assertEquals("3:|0:NULL|0:NULL|", rows.get(2).replaceFirst(
+                "^[^|]*\\|", ""));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * In-memory database of the tests, every instance is a new empty database.
+ * 
+ * @author Jamling
+ * 
+ */
+public class TestDatabase extends SQLiteOpenHelper {
+
+    public TestDatabase() {
+        super(null, null, null, 1);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE person (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + " _name TEXT, _age INTEGER CHECK (_age >= 0), _score REAL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+    }
+
+    /**
+     * Insert persons named "p0", "p1"... with age <code>i % ages</code> and
+     * score <code>i</code>.
+     * 
+     * @param session
+     *            session of this database
+     * @param count
+     *            number of persons
+     * @param ages
+     *            number of distinct ages
+     */
+    public static void insertPersons(Session session, int count, int ages) {
+        session.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                session.insert(new Person("p" + i, i % ages, (double) i));
+            }
+            session.setTransactionSuccessful();
+        } finally {
+            session.endTransaction();
+        }
+    }
+
+    /**
+     * Count rows of the table.
+     * 
+     * @param table
+     *            table name
+     * @return row count
+     */
+    public long count(String table) {
+        return getReadableDatabase().compileStatement(
+                "SELECT COUNT(*) FROM " + table).simpleQueryForLong();
+    }
+}
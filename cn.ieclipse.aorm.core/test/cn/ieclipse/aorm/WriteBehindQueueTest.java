@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010-2014 Jamling(li.jamling@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.ieclipse.aorm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.ieclipse.aorm.Session.SessionListener;
+
+/**
+ * Coalescing and failure handling of {@link WriteBehindQueue}. The interval is
+ * long, so only the explicit flushes write.
+ * 
+ * @author Jamling
+ * 
+ */
+public class WriteBehindQueueTest {
+    private TestDatabase helper;
+    private Session session;
+    private WriteBehindQueue queue;
+
+    @Before
+    public void setUp() {
+        helper = new TestDatabase();
+        // the row named "locked" can't be deleted
+        helper.getWritableDatabase().execSQL(
+                "CREATE TRIGGER person_locked BEFORE DELETE ON person"
+                        + " WHEN old._name = 'locked'"
+                        + " BEGIN SELECT RAISE(ABORT, 'locked'); END");
+        session = new Session(helper);
+        queue = new WriteBehindQueue(session, 60000, 100);
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            queue.close();
+        } catch (ORMException e) {
+            // failed mutations of test
+        }
+        helper.close();
+    }
+
+    private static Person person(long id, String name, Integer age) {
+        Person p = new Person(name, age, null);
+        p.setId(id);
+        return p;
+    }
+
+    private void flushFailed() {
+        try {
+            queue.flush();
+            fail("flush should fail");
+        } catch (ORMException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCoalesceSaves() {
+        long id = session.insert(new Person("a", 1, null));
+        queue.save(person(id, "b", null));
+        queue.save(person(id, "c", null));
+        queue.save(person(id, "d", null));
+
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(3, queue.getQueuedCount());
+        assertEquals(2, queue.getCoalescedCount());
+        queue.flush();
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(1, queue.getWrittenCount());
+        Person p = session.get(Person.class, id);
+        assertEquals("d", p.getName());
+        assertEquals(1, p.getAge().intValue());
+    }
+
+    @Test
+    public void testNewObjectsNotCoalesced() {
+        queue.save(new Person("a", 1, null));
+        queue.save(new Person("a", 1, null));
+
+        assertEquals(2, queue.getQueueDepth());
+        queue.flush();
+        assertEquals(2, helper.count("person"));
+    }
+
+    @Test
+    public void testDeleteOverridesSave() {
+        long id = session.insert(new Person("a", 1, null));
+        Person p = person(id, "b", null);
+        queue.save(p);
+        queue.delete(p);
+
+        assertEquals(1, queue.getQueueDepth());
+        queue.flush();
+        assertEquals(0, helper.count("person"));
+    }
+
+    @Test
+    public void testSaveAfterDelete() {
+        long id = session.insert(new Person("a", 1, null));
+        queue.deleteById(Person.class, id);
+        queue.save(person(id, "b", null));
+
+        queue.flush();
+        // deleted then inserted, the old age is gone
+        Person p = session.get(Person.class, id);
+        assertEquals("b", p.getName());
+        assertEquals(1, session.count(Criteria.create(Person.class).add(
+                Restrictions.isNull("age"))));
+    }
+
+    @Test
+    public void testFailedMutationIsolated() {
+        queue.save(new Person("a", 1, null));
+        queue.save(new Person("bad", -1, null));
+        queue.save(new Person("c", 3, null));
+
+        flushFailed();
+        // the good ones are written
+        assertEquals(2, helper.count("person"));
+        assertEquals(1, queue.getQueueDepth());
+        assertNotNull(queue.getLastError());
+
+        flushFailed();
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(0, queue.getDroppedCount());
+        flushFailed();
+        // dropped after MAX_ATTEMPTS
+        assertEquals(3, WriteBehindQueue.MAX_ATTEMPTS);
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(1, queue.getDroppedCount());
+        queue.flush();
+        assertEquals(2, helper.count("person"));
+    }
+
+    @Test
+    public void testFailedDeleteMergedWithNewer() {
+        final long id = session.insert(new Person("locked", 7, null));
+        final boolean[] saved = new boolean[1];
+        session.addSessionListener(new SessionListener() {
+            public void onChange(Class<?> clazz) {
+                if (!saved[0]) {
+                    // queued while the failed delete is out of the queue
+                    saved[0] = true;
+                    queue.save(person(id, "n", null));
+                }
+            }
+        });
+        queue.deleteById(Person.class, id);
+        queue.save(new Person("a", 1, null));
+
+        flushFailed();
+        assertTrue(saved[0]);
+        assertEquals(1, queue.getQueueDepth());
+
+        session.getWritableDatabase().execSQL(
+                "UPDATE person SET _name = 'free' WHERE _id = " + id);
+        queue.flush();
+        // the delete is kept and written before the newer save
+        assertEquals("n", session.get(Person.class, id).getName());
+        assertEquals(1, session.count(Criteria.create(Person.class).add(
+                Restrictions.isNull("age"))));
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testFlushFromListener() throws Exception {
+        final Throwable[] error = new Throwable[1];
+        session.addSessionListener(new SessionListener() {
+            public void onChange(Class<?> clazz) {
+                try {
+                    queue.flush();
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            }
+        });
+        queue.save(new Person("a", 1, null));
+        queue.awaitFlush(5, TimeUnit.SECONDS);
+
+        assertNull(error[0]);
+        assertEquals(1, helper.count("person"));
+    }
+
+    @Test
+    public void testClose() {
+        queue.save(new Person("a", 1, null));
+        queue.close();
+
+        assertEquals(1, helper.count("person"));
+        try {
+            queue.save(new Person("b", 1, null));
+            fail("closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(helper.count("person") > 1);
+    }
+}